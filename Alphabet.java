@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.error;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
@@ -10,7 +12,47 @@ class Alphabet {
     /** A new alphabet containing CHARS.  Character number #k has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        this._alphabet = chars;
+        this._chars = chars.toCharArray();
+
+        char min = Character.MAX_VALUE, max = Character.MIN_VALUE;
+        for (char ch : _chars) {
+            min = (char) Math.min(min, ch);
+            max = (char) Math.max(max, ch);
+        }
+        int range = _chars.length == 0 ? 0 : max - min + 1;
+
+        if (range <= Math.max(MAX_DENSE_RANGE, DENSE_FACTOR * _chars.length)) {
+            _base = min;
+            _dense = new int[range];
+            Arrays.fill(_dense, -1);
+            for (int i = 0; i < _chars.length; i++) {
+                if (_dense[_chars[i] - min] != -1) {
+                    throw error("Duplicate character in alphabet: %c",
+                            _chars[i]);
+                }
+                _dense[_chars[i] - min] = i;
+            }
+            _keys = null;
+            _values = null;
+            _shift = 0;
+        } else {
+            _base = 0;
+            _dense = null;
+            int capacity = Integer.highestOneBit(_chars.length * 2 - 1) << 1;
+            _keys = new char[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_values, -1);
+            _shift = Integer.numberOfLeadingZeros(capacity - 1);
+            for (int i = 0; i < _chars.length; i++) {
+                int slot = slot(_chars[i]);
+                if (_values[slot] != -1) {
+                    throw error("Duplicate character in alphabet: %c",
+                            _chars[i]);
+                }
+                _keys[slot] = _chars[i];
+                _values[slot] = i;
+            }
+        }
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -18,34 +60,132 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** Returns the alphabet of the 256 byte values: character number K is
+     *  (char) K, so that the index of each symbol is the unsigned value
+     *  of its byte. */
+    static Alphabet bytes() {
+        return BYTES;
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
-        return _alphabet.length();
+        return _chars.length;
     }
 
     /** Returns true if preprocess(CH) is in this alphabet. */
     boolean contains(char ch) {
-        return this._alphabet.indexOf(ch) != -1;
+        return indexOf(ch) != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        return _alphabet.charAt(index);
+        return _chars[index];
     }
 
     /** Returns the index of character preprocess(CH), which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        int index = _alphabet.indexOf(ch);
+        int index = indexOf(ch);
         if (index == -1) {
-            throw error("Unable to find character in alphabet", ch);
+            throw error("Unable to find character in alphabet: %c", ch);
         }
         return index;
     }
 
+    /** Returns the index of CH, or -1 if CH is not in the alphabet. */
+    private int indexOf(char ch) {
+        if (_dense != null) {
+            int offset = ch - _base;
+            if (offset < 0 || offset >= _dense.length) {
+                return -1;
+            }
+            return _dense[offset];
+        }
+        int mask = _keys.length - 1;
+        for (int slot = (ch * HASH_MULTIPLIER) >>> _shift; ;
+             slot = (slot + 1) & mask) {
+            int value = _values[slot];
+            if (value == -1 || _keys[slot] == ch) {
+                return value;
+            }
+        }
+    }
+
+    /** Returns the slot of the open-addressed table holding CH, or the
+     *  empty slot where CH would be stored. */
+    private int slot(char ch) {
+        int mask = _keys.length - 1;
+        int slot = (ch * HASH_MULTIPLIER) >>> _shift;
+        while (_values[slot] != -1 && _keys[slot] != ch) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Number of byte values, the size of bytes().
+     */
+    static final int BYTE_VALUES = 256;
+
+    /**
+     * The alphabet of byte values.
+     */
+    private static final Alphabet BYTES;
+
+    static {
+        char[] chars = new char[BYTE_VALUES];
+        for (int k = 0; k < BYTE_VALUES; k++) {
+            chars[k] = (char) k;
+        }
+        BYTES = new Alphabet(new String(chars));
+    }
+
+    /**
+     * Alphabets spanning at most this many code units always use the
+     * dense lookup table.
+     */
+    private static final int MAX_DENSE_RANGE = 1024;
+
+    /**
+     * Larger alphabets use the dense table as long as it is at most this
+     * many times larger than the alphabet itself.
+     */
+    private static final int DENSE_FACTOR = 4;
+
+    /**
+     * Fibonacci hashing multiplier for the open-addressed table.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    /**
+     * Characters of this Alphabet, indexed by their number.
+     */
+    private final char[] _chars;
+
+    /**
+     * Smallest character of this Alphabet when _dense is used.
+     */
+    private final char _base;
+
+    /**
+     * Index of character _base + K at K, or -1 if absent. Null when the
+     * alphabet is too sparse.
+     */
+    private final int[] _dense;
+
+    /**
+     * Keys of the open-addressed table used for sparse alphabets.
+     */
+    private final char[] _keys;
+
+    /**
+     * Indices matching _keys, or -1 for empty slots.
+     */
+    private final int[] _values;
+
     /**
-     * The alphabet string of this Alphabet.
+     * Shift turning a hashed character into a slot of _keys.
      */
-    private final String _alphabet;
+    private final int _shift;
 }
@@ -0,0 +1,84 @@
+package enigma;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Alphabet class.
+ *
+ * @author Jianing Yu
+ */
+public class AlphabetTest {
+    /**
+     * Test an alphabet mixing ASCII and CJK characters, which spans far
+     * more than max(1024, 4 * size) code units and so is looked up by
+     * hashing rather than through a dense table.
+     */
+    @Test
+    public void testSparse() {
+        String chars = "ABCXYZ\u4e00\u4e8c\u4e09\u56db\u4e94\u516d"
+            + "019\uac00\uffee";
+        checkAlphabet(chars);
+    }
+
+    /**
+     * Test alphabets of 300 characters spread evenly over ranges just
+     * inside and just beyond 4 * size code units, the largest range kept
+     * in a dense table, and a larger one whose hash table is crowded.
+     */
+    @Test
+    public void testThreshold() {
+        checkAlphabet(spread(300, 4));
+        checkAlphabet(spread(300, 5));
+        checkAlphabet(spread(4000, 16));
+    }
+
+    /**
+     * Test that duplicate characters are rejected by dense and sparse
+     * alphabets alike.
+     */
+    @Test
+    public void testDuplicates() {
+        for (String chars : new String[] {
+                "ABCA", "AA", "A\u4e00B\u4e00", "\u4e00A\uffee\u4e00Z",
+                spread(300, 5) + "\u0105" }) {
+            try {
+                new Alphabet(chars);
+                fail("accepted duplicate characters in " + chars.length()
+                    + "-character alphabet");
+            } catch (EnigmaException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Return an alphabet of SIZE characters STRIDE apart, starting at
+     *  U+0100. */
+    private static String spread(int size, int stride) {
+        StringBuilder chars = new StringBuilder();
+        for (int k = 0; k < size; k++) {
+            chars.append((char) (0x100 + k * stride));
+        }
+        return chars.toString();
+    }
+
+    /** Assert that the alphabet of CHARS numbers them in order, and that
+     *  it contains exactly those characters out of all char values. */
+    private static void checkAlphabet(String chars) {
+        Alphabet alphabet = new Alphabet(chars);
+        assertEquals(chars.length(), alphabet.size());
+        for (int k = 0; k < chars.length(); k++) {
+            assertEquals(chars.charAt(k), alphabet.toChar(k));
+            assertEquals(k, alphabet.toInt(chars.charAt(k)));
+        }
+        for (int ch = Character.MIN_VALUE; ch <= Character.MAX_VALUE; ch++) {
+            assertEquals(chars.indexOf(ch) >= 0, alphabet.contains((char) ch));
+        }
+        try {
+            alphabet.toInt('!');
+            fail("found a character not in the alphabet");
+        } catch (EnigmaException excp) {
+            return;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.error;
+
+/** A search for keys in the manner of the Turing-Welchman Bombe.  A crib
+ *  placed against the ciphertext gives a menu: a graph on the letters
+ *  with an edge from each crib letter to the ciphertext letter under it,
+ *  labelled with its offset.  If the plugboard takes letter A to U, and
+ *  the menu joins A and B at offset I, then it takes B to S_I(U), where
+ *  S_I is the scrambling by the rotors (without plugboard) at that
+ *  offset; and since the plugboard is an involution, it also takes U to
+ *  A (the diagonal board).  For each rotor order and setting, the search
+ *  makes a hypothesis about the plug of the most connected menu letter
+ *  and follows these implications.  If they reach every hypothesis about
+ *  that letter, none can be true and the setting is rejected, usually
+ *  after scrambling only a few letters, without a full encryption.
+ *  Otherwise each self-consistent set of implications is a stop, giving
+ *  plugs for the letters it reaches.  As with the Bombe, stops are
+ *  candidates, to be confirmed by deciphering with them.
+ *
+ *  Scramblings are computed from the rotors' wiring at explicit
+ *  settings, and remembered for the setting being tested.  Rotor orders
+ *  are searched in parallel on a ForkJoinPool.  As in CribSearch, the
+ *  search is over the settings at the start of the crib.
+ *  @author Jianing Yu
+ */
+public final class Bombe {
+
+    /** Search the configurations of the machine described in the
+     *  configuration file named ARGS[0] with the menu made by placing crib
+     *  ARGS[2] against ciphertext ARGS[1] at positions ARGS[3..] (by
+     *  default, all positions), printing each stop. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("usage: Bombe CONFIG CIPHERTEXT CRIB "
+                    + "[POSITION ...]");
+            }
+            Machine machine;
+            try {
+                machine = Main.readConfig(new Scanner(new File(args[0])));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            int[] positions = null;
+            if (args.length > 3) {
+                positions = new int[args.length - 3];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = Integer.parseInt(args[i + 3]);
+                }
+            }
+            for (Stop stop : new Bombe(machine, args[1], args[2],
+                                       positions).run()) {
+                System.out.println(stop);
+            }
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A Bombe for the rotor library of MACHINE, with menus made by
+     *  placing CRIB against CIPHERTEXT at each of POSITIONS (indices into
+     *  CIPHERTEXT with whitespace removed), or at every position if
+     *  POSITIONS is null.  Rotor orders are chosen as by CribSearch. */
+    Bombe(Machine machine, String ciphertext, String crib, int[] positions) {
+        _machine = machine.copy();
+        _machine.setPlugboard(null);
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        _cipher = toInts(ciphertext);
+        _crib = toInts(crib);
+        if (_crib.length == 0 || _crib.length > _cipher.length) {
+            throw error("crib must be non-empty and fit in the ciphertext");
+        }
+        if (positions == null) {
+            positions = new int[_cipher.length - _crib.length + 1];
+            Arrays.setAll(positions, i -> i);
+        }
+        _menus = new ArrayList<>();
+        for (int p : positions) {
+            if (p < 0 || p + _crib.length > _cipher.length) {
+                throw error("crib does not fit at position %d", p);
+            }
+            _menus.add(new Menu(p));
+        }
+        _library = new ArrayList<>(machine.allRotors());
+        _orders = CribSearch.rotorOrders(machine, _library);
+    }
+
+    /** Return the stops found using the common ForkJoinPool, ordered by
+     *  rotor order, crib position and setting. */
+    List<Stop> run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /** Return the stops found using POOL, ordered by rotor order, crib
+     *  position and setting. */
+    List<Stop> run(ForkJoinPool pool) {
+        Queue<Stop> stops = new ConcurrentLinkedQueue<>();
+        pool.invoke(new Orders(0, _orders.size(), stops));
+        List<Stop> result = new ArrayList<>(stops);
+        result.sort(Comparator.comparingInt((Stop s) -> s._order)
+            .thenComparingInt(s -> s._position)
+            .thenComparing(s -> s._settings));
+        return result;
+    }
+
+    /** A rotor order and setting at which the Bombe stopped, with the
+     *  plugs it implies for the letters of the menu. */
+    static final class Stop {
+
+        /** A stop for the rotor order with index ORDER, rotors named
+         *  ROTORS, with the crib at POSITION, where the settings are
+         *  SETTINGS and the plugboard is PLUGBOARD. */
+        private Stop(int order, String[] rotors, int position,
+                     String settings, String plugboard) {
+            _order = order;
+            _rotors = rotors;
+            _position = position;
+            _settings = settings;
+            _plugboard = plugboard;
+        }
+
+        /** Return the names of the rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the position of the crib. */
+        int position() {
+            return _position;
+        }
+
+        /** Return the settings of the rotors where the crib starts. */
+        String settings() {
+            return _settings;
+        }
+
+        /** Return the plug pairs found, in cycle notation. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("* %s %s %s  (crib at %d)",
+                String.join(" ", _rotors), _settings, _plugboard, _position);
+        }
+
+        /** Index of the rotor order. */
+        private final int _order;
+
+        /** Rotor names. */
+        private final String[] _rotors;
+
+        /** Position of the crib. */
+        private final int _position;
+
+        /** Settings where the crib starts. */
+        private final String _settings;
+
+        /** Plug pairs. */
+        private final String _plugboard;
+    }
+
+    /** The menu for the crib at one position, as lists of edges from each
+     *  letter. */
+    private final class Menu {
+
+        /** The menu for the crib at POSITION. */
+        Menu(int position) {
+            _position = position;
+            int[] degree = new int[_size];
+            for (int i = 0; i < _crib.length; i++) {
+                int a = _crib[i], b = _cipher[position + i];
+                if (a == b) {
+                    _selfEnciphering = true;
+                }
+                degree[a]++;
+                degree[b]++;
+            }
+            _start = new int[_size + 1];
+            for (int a = 0; a < _size; a++) {
+                _start[a + 1] = _start[a] + degree[a];
+            }
+            _to = new int[2 * _crib.length];
+            _offset = new int[2 * _crib.length];
+            int[] next = Arrays.copyOf(_start, _size);
+            for (int i = 0; i < _crib.length; i++) {
+                int a = _crib[i], b = _cipher[position + i];
+                _to[next[a]] = b;
+                _offset[next[a]++] = i;
+                _to[next[b]] = a;
+                _offset[next[b]++] = i;
+            }
+            int test = 0;
+            for (int a = 1; a < _size; a++) {
+                if (degree[a] > degree[test]) {
+                    test = a;
+                }
+            }
+            _test = test;
+        }
+
+        /** Position of the crib. */
+        private final int _position;
+
+        /** True iff the crib enciphers some letter to itself at _position,
+         *  which a machine whose reflector has no fixed points cannot do,
+         *  whatever its plugboard. */
+        private boolean _selfEnciphering;
+
+        /** Edges from letter A are at indices _start[A] .. _start[A+1]-1. */
+        private final int[] _start;
+
+        /** The letter at the other end of each edge. */
+        private final int[] _to;
+
+        /** The crib offset of each edge. */
+        private final int[] _offset;
+
+        /** The letter whose plug is hypothesized (the test register). */
+        private final int _test;
+    }
+
+    /** Searches the rotor orders with indices in a range, splitting the
+     *  range among subtasks. */
+    private final class Orders extends RecursiveAction {
+
+        /** Search the orders with indices LO .. HI-1, adding stops to
+         *  STOPS. */
+        Orders(int lo, int hi, Queue<Stop> stops) {
+            _lo = lo;
+            _hi = hi;
+            _stops = stops;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Orders(_lo, mid, _stops),
+                    new Orders(mid, _hi, _stops));
+            } else if (_hi > _lo) {
+                new Run(_lo, _stops).run();
+            }
+        }
+
+        /** Range of order indices. */
+        private final int _lo, _hi;
+
+        /** Where to put stops. */
+        private final Queue<Stop> _stops;
+
+        /** Version for serialization. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** A run of the Bombe over every setting of one rotor order. All the
+     *  space it needs is allocated when it is created. */
+    private final class Run {
+
+        /** A run for the rotor order with index ORDER, adding stops to
+         *  STOPS. */
+        Run(int order, Queue<Stop> stops) {
+            _order = order;
+            _stops = stops;
+            _runMachine = _machine.copy();
+            int numRotors = _runMachine.numRotors();
+            _state = new int[_runMachine.stateSize()];
+            System.arraycopy(_orders.get(order), 0, _state, 0, numRotors);
+            _rotors = new Rotor[numRotors];
+            for (int i = 0; i < numRotors; i++) {
+                _rotors[i] = _library.get(_state[i]);
+            }
+            _runMenus = new ArrayList<>();
+            boolean derangement = _rotors[0].permutation().derangement();
+            for (Menu menu : _menus) {
+                if (!(derangement && menu._selfEnciphering)) {
+                    _runMenus.add(menu);
+                }
+            }
+            _saved = new int[_state.length];
+            _settings = new int[_crib.length * numRotors];
+            _scrambled = new int[_crib.length * _size];
+            _mark = new int[_size * _size];
+            _queue = new int[_size * _size];
+            _plug = new int[_size];
+            _plugMark = new int[_size];
+        }
+
+        /** Try every setting with every menu. */
+        void run() {
+            int numRotors = _rotors.length;
+            while (true) {
+                computeSettings();
+                for (Menu menu : _runMenus) {
+                    test(menu);
+                }
+                int slot = 2 * numRotors - 1;
+                while (slot > numRotors && _state[slot] == _size - 1) {
+                    _state[slot] = 0;
+                    slot--;
+                }
+                if (slot == numRotors) {
+                    return;
+                }
+                _state[slot]++;
+            }
+        }
+
+        /** Record the settings of the rotors at each crib offset, starting
+         *  from _state, and forget the scramblings of the last setting. */
+        private void computeSettings() {
+            int numRotors = _rotors.length;
+            _runMachine.restoreState(_state);
+            for (int i = 0; i < _crib.length; i++) {
+                _runMachine.advance(1);
+                _runMachine.saveState(_saved);
+                System.arraycopy(_saved, numRotors, _settings,
+                    i * numRotors, numRotors);
+            }
+            Arrays.fill(_scrambled, -1);
+        }
+
+        /** Return S_I(U), the scrambling of U by the rotors at crib
+         *  offset I. */
+        private int scramble(int i, int u) {
+            int k = i * _size + u;
+            if (_scrambled[k] < 0) {
+                int base = i * _rotors.length;
+                int c = u;
+                for (int j = _rotors.length - 1; j > 0; j--) {
+                    c = _rotors[j].convertForward(c, _settings[base + j]);
+                }
+                c = _rotors[0].convertForward(c, 0);
+                for (int j = 1; j < _rotors.length; j++) {
+                    c = _rotors[j].convertBackward(c, _settings[base + j]);
+                }
+                _scrambled[k] = c;
+                _scrambled[i * _size + c] = u;
+            }
+            return _scrambled[k];
+        }
+
+        /** Test the current setting with MENU, recording a stop for each
+         *  set of hypotheses about its test letter that is consistent. */
+        private void test(Menu menu) {
+            if (_label > Integer.MAX_VALUE - _size - 1) {
+                Arrays.fill(_mark, 0);
+                _label = 0;
+            }
+            int first = _label;
+            int testBase = menu._test * _size;
+            for (int u = 0; u < _size; u++) {
+                if (_mark[testBase + u] > first) {
+                    continue;
+                }
+                if (light(menu, testBase + u, first) == _size) {
+                    return;
+                }
+                if (consistent()) {
+                    record(menu);
+                }
+            }
+        }
+
+        /** Follow the implications of the hypothesis NODE (letter * size +
+         *  plug) through MENU and the diagonal board, labelling the nodes
+         *  reached, which have no label greater than FIRST, with a new one.
+         *  Return the number of hypotheses about MENU's test letter
+         *  reached, stopping early if that is all of them. */
+        private int light(Menu menu, int node, int first) {
+            int label = ++_label;
+            int lit = 0;
+            int head = 0, tail = 0;
+            _mark[node] = label;
+            _queue[tail++] = node;
+            while (head < tail) {
+                int n = _queue[head++];
+                int a = n / _size, u = n % _size;
+                if (a == menu._test && ++lit == _size) {
+                    return lit;
+                }
+                int diagonal = u * _size + a;
+                if (_mark[diagonal] <= first) {
+                    _mark[diagonal] = label;
+                    _queue[tail++] = diagonal;
+                }
+                for (int e = menu._start[a]; e < menu._start[a + 1]; e++) {
+                    int next = menu._to[e] * _size
+                        + scramble(menu._offset[e], u);
+                    if (_mark[next] <= first) {
+                        _mark[next] = label;
+                        _queue[tail++] = next;
+                    }
+                }
+            }
+            _lastTail = tail;
+            return lit;
+        }
+
+        /** Return true iff the nodes reached by the last light() give at
+         *  most one plug to each letter, filling _plug with them. */
+        private boolean consistent() {
+            _plugGeneration++;
+            for (int k = 0; k < _lastTail; k++) {
+                int n = _queue[k];
+                int a = n / _size, u = n % _size;
+                if (_plugMark[a] == _plugGeneration) {
+                    if (_plug[a] != u) {
+                        return false;
+                    }
+                } else {
+                    _plugMark[a] = _plugGeneration;
+                    _plug[a] = u;
+                }
+            }
+            return true;
+        }
+
+        /** Record a stop for the current setting of MENU, with the plugs
+         *  in _plug. */
+        private void record(Menu menu) {
+            int numRotors = _rotors.length;
+            StringBuilder settings = new StringBuilder();
+            for (int i = 1; i < numRotors; i++) {
+                settings.append(_alphabet.toChar(_state[numRotors + i]));
+            }
+            StringBuilder plugboard = new StringBuilder();
+            for (int a = 0; a < _size; a++) {
+                if (_plugMark[a] == _plugGeneration && _plug[a] > a) {
+                    if (plugboard.length() > 0) {
+                        plugboard.append(' ');
+                    }
+                    plugboard.append('(').append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_plug[a])).append(')');
+                }
+            }
+            String[] names = new String[numRotors];
+            for (int i = 0; i < numRotors; i++) {
+                names[i] = _rotors[i].name();
+            }
+            _stops.add(new Stop(_order, names, menu._position,
+                settings.toString(), plugboard.toString()));
+        }
+
+        /** Index of the rotor order. */
+        private final int _order;
+
+        /** Where to put stops. */
+        private final Queue<Stop> _stops;
+
+        /** Machine used to step the rotors. */
+        private final Machine _runMachine;
+
+        /** The rotors, reflector first. */
+        private final Rotor[] _rotors;
+
+        /** The menus this rotor order can stop on. */
+        private final List<Menu> _runMenus;
+
+        /** The machine state being tested. */
+        private final int[] _state;
+
+        /** Scratch space for saved states. */
+        private final int[] _saved;
+
+        /** Settings of rotor J at crib offset I, at I * numRotors + J. */
+        private final int[] _settings;
+
+        /** S_I(U) at I * size + U, or -1 if not yet computed. */
+        private final int[] _scrambled;
+
+        /** Label of the search that last reached each node. */
+        private final int[] _mark;
+
+        /** The last label given. */
+        private int _label;
+
+        /** Number of nodes reached by the last light(). */
+        private int _lastTail;
+
+        /** Generation of the plugs found by the last consistent(). */
+        private int _plugGeneration;
+
+        /** Nodes to visit. */
+        private final int[] _queue;
+
+        /** Plug of each letter found by consistent(). */
+        private final int[] _plug;
+
+        /** Marks the letters in _plug found by the last consistent(). */
+        private final int[] _plugMark;
+    }
+
+    /** Return the indices in my alphabet of the characters of TEXT,
+     *  ignoring whitespace. */
+    private int[] toInts(String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                result[n++] = _alphabet.toInt(ch);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Machine whose copies are used, without a plugboard. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** The crib, as alphabet indices. */
+    private final int[] _crib;
+
+    /** Menus for the possible crib positions. */
+    private final List<Menu> _menus;
+
+    /** The rotors of _machine, indexed by id. */
+    private final List<Rotor> _library;
+
+    /** The ids of the rotors of every rotor order to search. */
+    private final List<int[]> _orders;
+}
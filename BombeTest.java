@@ -0,0 +1,49 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Bombe class.
+ *
+ * @author Jianing Yu
+ */
+public class BombeTest {
+    /**
+     * Test that the Bombe stops at the key of a known message, with a
+     * reflector without fixed points and with one having fixed points,
+     * which can encipher a letter to itself.
+     */
+    @Test
+    public void testBombe() {
+        String plain = "WEATHERREPORTFORTODAYISCLEAR", crib = "WEATHERREPORT";
+        String[] reflectors = {
+            "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ) (TV)",
+            "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ)",
+        };
+        for (String reflector : reflectors) {
+            List<Rotor> library = new ArrayList<>();
+            library.add(new Reflector("R", new Permutation(reflector, UPPER)));
+            for (Rotor rotor : NAVALA_ROTORS) {
+                if (List.of("I", "II", "III", "IV").contains(rotor.name())) {
+                    library.add(rotor);
+                }
+            }
+            Machine machine = new Machine(UPPER, 3, 2, library);
+            Main.setUp(machine, "* R II IV AA (AQ) (BR) (EP) (HX) (MO) (TZ)");
+            String cipher = machine.convert(plain);
+            boolean found = false;
+            for (Bombe.Stop stop
+                     : new Bombe(machine, cipher, crib, new int[] {0}).run()) {
+                found |= Arrays.equals(new String[] {"R", "II", "IV"},
+                    stop.rotors()) && stop.settings().equals("AA");
+            }
+            assertTrue(found);
+        }
+    }
+}
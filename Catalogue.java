@@ -0,0 +1,828 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.error;
+
+/** A catalogue of characteristics, after Rejewski's.  When the message
+ *  key (K settings, K being the number of rotors after the reflector) is
+ *  enciphered twice at a ground setting, the 2K characters of every
+ *  indicator are related by the products P_I = E_{I+K} E_I of the
+ *  machine's permutations at the first 2K characters.  The lengths of the
+ *  cycles of P_1 .. P_K, the characteristic, depend on the rotor order
+ *  and ground setting but not on the plugboard, which only conjugates
+ *  them, and a few dozen indicators determine them.
+ *
+ *  The catalogue is built by computing the characteristics of each rotor
+ *  order's ground settings, in parallel on a ForkJoinPool, sorting them
+ *  and writing them as a run to a scratch file; the runs are then merged
+ *  into a file holding the sorted characteristics, each with the orders
+ *  and settings that have it.  So only one order's characteristics per
+ *  thread, and a buffer per run, are ever in memory.  A characteristic is
+ *  keyed by its rank among all possible ones, which identifies it
+ *  exactly.  Looking up an observed characteristic maps the file into
+ *  memory and binary-searches it, so takes microseconds.  As in
+ *  CribSearch, ring settings are not part of this model.
+ *  @author Jianing Yu
+ */
+public final class Catalogue {
+
+    /** Build or search a catalogue.  "build CONFIG INDEX" builds the
+     *  catalogue of the machine described in the configuration file named
+     *  CONFIG into the file named INDEX.  "lookup INDEX INDICATORS" prints
+     *  the characteristic of the indicators in the file named INDICATORS
+     *  and a setting line for each ground setting in the catalogue INDEX
+     *  having that characteristic. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 3 && args[0].equals("build")) {
+                Machine machine;
+                try {
+                    machine = Main.readConfig(new Scanner(new File(args[1])));
+                } catch (IOException excp) {
+                    throw error("could not open %s", args[1]);
+                }
+                build(machine, Paths.get(args[2]), ForkJoinPool.commonPool());
+            } else if (args.length == 3 && args[0].equals("lookup")) {
+                Catalogue catalogue = new Catalogue(Paths.get(args[1]));
+                List<String> indicators = new ArrayList<>();
+                try (Scanner input = new Scanner(new File(args[2]))) {
+                    while (input.hasNext()) {
+                        indicators.add(input.next());
+                    }
+                } catch (IOException excp) {
+                    throw error("could not open %s", args[2]);
+                }
+                int[][] lengths = catalogue.characteristic(indicators);
+                System.out.println(format(lengths));
+                for (int entry : catalogue.lookup(key(lengths))) {
+                    System.out.println(catalogue.settingLine(entry));
+                }
+            } else {
+                throw error("usage: Catalogue build CONFIG INDEX | "
+                    + "Catalogue lookup INDEX INDICATORS");
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** The catalogue in the file INDEX, written by build. */
+    Catalogue(Path index) {
+        try (FileChannel channel = FileChannel.open(index)) {
+            long length = channel.size();
+            _windows = new ByteBuffer[(int) ((length + WINDOW - 1) / WINDOW)];
+            for (int i = 0; i < _windows.length; i++) {
+                _windows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    (long) i * WINDOW,
+                    Math.min(WINDOW, length - (long) i * WINDOW));
+            }
+            ByteBuffer buf = _windows.length > 0 ? _windows[0].duplicate()
+                : ByteBuffer.allocate(0);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("%s is not a catalogue", index);
+            }
+            _alphabet = new Alphabet(getString(buf));
+            _numRotors = buf.getInt();
+            _names = new String[buf.getInt()];
+            for (int i = 0; i < _names.length; i++) {
+                _names[i] = getString(buf);
+            }
+            _orders = new int[buf.getInt()][_numRotors];
+            for (int[] order : _orders) {
+                buf.asIntBuffer().get(order);
+                buf.position(buf.position() + order.length * Integer.BYTES);
+            }
+            _numKeys = buf.getInt();
+            _numEntries = buf.getInt();
+            _entriesAt = align(buf.position());
+            _keysAt = align(_entriesAt + (long) _numEntries * Integer.BYTES);
+            if (_keysAt + (long) _numKeys * KEY_BYTES > length) {
+                throw error("%s is truncated", index);
+            }
+        } catch (IOException | BufferUnderflowException
+                 | IllegalArgumentException excp) {
+            throw error("could not read catalogue %s", index);
+        }
+    }
+
+    /** Return the entries (numbers of rotor orders and ground settings)
+     *  whose characteristic has key KEY, in increasing order. */
+    int[] lookup(long key) {
+        int lo = 0, hi = _numKeys - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long at = _keysAt + (long) mid * KEY_BYTES;
+            long k = getLong(at);
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                long start = getLong(at + Long.BYTES);
+                long end = mid + 1 < _numKeys
+                    ? getLong(at + KEY_BYTES + Long.BYTES) : _numEntries;
+                int[] result = new int[(int) (end - start)];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = getInt(_entriesAt
+                        + (start + i) * Integer.BYTES);
+                }
+                return result;
+            }
+        }
+        return new int[0];
+    }
+
+    /** Return the long at offset AT of the catalogue file. */
+    private long getLong(long at) {
+        return _windows[(int) (at / WINDOW)].getLong((int) (at % WINDOW));
+    }
+
+    /** Return the int at offset AT of the catalogue file. */
+    private int getInt(long at) {
+        return _windows[(int) (at / WINDOW)].getInt((int) (at % WINDOW));
+    }
+
+    /** Return the setting line (without plugboard) for catalogue entry
+     *  ENTRY. */
+    String settingLine(int entry) {
+        int size = _alphabet.size();
+        int settings = settingsPerOrder(size, _numRotors);
+        int[] order = _orders[entry / settings];
+        int setting = entry % settings;
+        StringBuilder result = new StringBuilder("*");
+        for (int id : order) {
+            result.append(' ').append(_names[id]);
+        }
+        char[] chars = new char[_numRotors - 1];
+        for (int i = chars.length - 1; i >= 0; i--) {
+            chars[i] = _alphabet.toChar(setting % size);
+            setting /= size;
+        }
+        return result.append(' ').append(chars).toString();
+    }
+
+    /** Return the characteristic of the doubled keys INDICATORS (each of
+     *  2K characters) enciphered on a machine in this catalogue: for each
+     *  I < K, the lengths of the cycles of P_I in decreasing order.  It is
+     *  an error if the indicators do not determine the P_I completely or
+     *  could not come from one ground setting. */
+    int[][] characteristic(List<String> indicators) {
+        int k = _numRotors - 1;
+        int size = _alphabet.size();
+        int[][] products = new int[k][size];
+        for (int[] product : products) {
+            Arrays.fill(product, -1);
+        }
+        for (String indicator : indicators) {
+            if (indicator.length() != 2 * k) {
+                throw error("indicator %s does not have %d characters",
+                    indicator, 2 * k);
+            }
+            for (int i = 0; i < k; i++) {
+                int from = _alphabet.toInt(indicator.charAt(i));
+                int to = _alphabet.toInt(indicator.charAt(i + k));
+                if (products[i][from] >= 0 && products[i][from] != to) {
+                    throw error("indicators are inconsistent at %s",
+                        indicator);
+                }
+                products[i][from] = to;
+            }
+        }
+        int[][] result = new int[k][];
+        for (int i = 0; i < k; i++) {
+            for (int c = 0; c < size; c++) {
+                if (products[i][c] < 0) {
+                    throw error("indicators do not show where %c goes in "
+                        + "position %d", _alphabet.toChar(c), i + 1);
+                }
+            }
+            result[i] = cycleLengths(products[i], new int[size]);
+        }
+        return result;
+    }
+
+    /** Write the catalogue of MACHINE (all its rotor orders, as chosen by
+     *  CribSearch, and all ground settings) to the file INDEX, computing
+     *  characteristics on POOL. */
+    static void build(Machine machine, Path index, ForkJoinPool pool) {
+        Machine plain = machine.copy();
+        plain.setPlugboard(null);
+        List<Rotor> library = new ArrayList<>(machine.allRotors());
+        List<int[]> orders = CribSearch.rotorOrders(machine, library);
+        int size = machine.alphabet().size();
+        int numRotors = machine.numRotors();
+        int settings = settingsPerOrder(size, numRotors);
+        if ((long) settings * orders.size() > Integer.MAX_VALUE) {
+            throw error("too many rotor orders and settings to catalogue");
+        }
+        long[][] counts = partitionCounts(size);
+        long range = 1;
+        for (int i = 1; i < numRotors; i++) {
+            if (range > Long.MAX_VALUE / counts[size][size]) {
+                throw error("too many characteristics to catalogue");
+            }
+            range *= counts[size][size];
+        }
+        int numEntries = settings * orders.size();
+
+        Path dir = index.toAbsolutePath().getParent();
+        String name = index.getFileName().toString();
+        Path runs = null, temp = null;
+        try {
+            runs = Files.createTempFile(dir, name, ".runs");
+            temp = Files.createTempFile(dir, name, ".tmp");
+            try (FileChannel runChannel = FileChannel.open(runs,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel out = FileChannel.open(temp,
+                     StandardOpenOption.WRITE)) {
+                long[] runAt = new long[orders.size()];
+                long[] runEnd = new long[orders.size()];
+                pool.invoke(new Orders(plain, orders, counts, runChannel,
+                    new AtomicLong(), runAt, runEnd, 0, orders.size()));
+
+                long entriesAt =
+                    align(header(machine, library, orders, 0, 0).length);
+                long keysAt =
+                    align(entriesAt + (long) numEntries * Integer.BYTES);
+                int numKeys = merge(runChannel, runAt, runEnd,
+                    new Output(out, entriesAt), new Output(out, keysAt));
+                write(out, ByteBuffer.wrap(header(machine, library, orders,
+                    numKeys, numEntries)), 0);
+            }
+            try {
+                Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | UncheckedIOException excp) {
+            delete(temp);
+            throw error("could not write catalogue %s", index);
+        } finally {
+            delete(runs);
+        }
+    }
+
+    /** Return the header of a catalogue of MACHINE, with rotors LIBRARY
+     *  and rotor orders ORDERS, holding NUMKEYS characteristics and
+     *  NUMENTRIES entries. */
+    private static byte[] header(Machine machine, List<Rotor> library,
+                                 List<int[]> orders, int numKeys,
+                                 int numEntries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Alphabet alphabet = machine.alphabet();
+            StringBuilder chars = new StringBuilder(alphabet.size());
+            for (int i = 0; i < alphabet.size(); i++) {
+                chars.append(alphabet.toChar(i));
+            }
+            putString(out, chars.toString());
+            out.writeInt(machine.numRotors());
+            out.writeInt(library.size());
+            for (Rotor rotor : library) {
+                putString(out, rotor.name());
+            }
+            out.writeInt(orders.size());
+            for (int[] order : orders) {
+                for (int id : order) {
+                    out.writeInt(id);
+                }
+            }
+            out.writeInt(numKeys);
+            out.writeInt(numEntries);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Merge the runs of RUNS, the Ith occupying bytes RUNAT[I] ..
+     *  RUNEND[I]-1, writing the entries of each key in order to ENTRIES
+     *  and each distinct key, with the index of its first entry, to KEYS.
+     *  Return the number of distinct keys. */
+    private static int merge(FileChannel runs, long[] runAt, long[] runEnd,
+                             Output entries, Output keys)
+        throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        for (int i = 0; i < runAt.length; i++) {
+            Run run = new Run(runs, runAt[i], runEnd[i], i);
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        int numKeys = 0;
+        long numEntries = 0;
+        long last = -1;
+        while (!queue.isEmpty()) {
+            Run run = queue.poll();
+            if (run.key() != last) {
+                last = run.key();
+                keys.putLong(last);
+                keys.putLong(numEntries);
+                numKeys++;
+            }
+            for (int i = 0; i < run.count(); i++) {
+                entries.putInt(run.nextEntry());
+            }
+            numEntries += run.count();
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        entries.flush();
+        keys.flush();
+        return numKeys;
+    }
+
+    /** Write all of BUF to CHANNEL at POSITION. */
+    private static void write(FileChannel channel, ByteBuffer buf,
+                              long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /** Delete FILE, if not null, as far as possible. */
+    private static void delete(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                /* Nothing more can be done. */
+            }
+        }
+    }
+
+    /** Computes the characteristics of the rotor orders with indices in a
+     *  range, splitting the range among subtasks, and writes those of each
+     *  order as a run: for each of its distinct keys in increasing order,
+     *  the key, the number of its entries, and the entries. */
+    private static final class Orders extends RecursiveAction {
+
+        /** Write to RUNS, at positions allocated from NEXT, the runs of
+         *  the characteristics of MACHINE with rotor orders ORDERS LO ..
+         *  HI-1, COUNTS being the partitionCounts of its alphabet size.
+         *  The run of order I occupies bytes RUNAT[I] .. RUNEND[I]-1. */
+        Orders(Machine machine, List<int[]> orders, long[][] counts,
+               FileChannel runs, AtomicLong next, long[] runAt,
+               long[] runEnd, int lo, int hi) {
+            _machine = machine;
+            _orders = orders;
+            _counts = counts;
+            _runs = runs;
+            _next = next;
+            _runAt = runAt;
+            _runEnd = runEnd;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Orders(_machine, _orders, _counts, _runs, _next,
+                        _runAt, _runEnd, _lo, mid),
+                    new Orders(_machine, _orders, _counts, _runs, _next,
+                        _runAt, _runEnd, mid, _hi));
+            } else if (_hi > _lo) {
+                try {
+                    writeRun(catalogueOrder());
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            }
+        }
+
+        /** Return the keys for every ground setting of order _lo. */
+        private long[] catalogueOrder() {
+            Machine machine = _machine.copy();
+            int numRotors = machine.numRotors();
+            int size = machine.alphabet().size();
+            int k = numRotors - 1;
+            int[] state = new int[machine.stateSize()];
+            System.arraycopy(_orders.get(_lo), 0, state, 0, numRotors);
+            int[][] perms = new int[2 * k][size];
+            int[] product = new int[size];
+            int[] scratch = new int[size];
+            int[][] lengths = new int[k][];
+            long[] keys = new long[settingsPerOrder(size, numRotors)];
+            int entry = 0;
+            while (true) {
+                machine.restoreState(state);
+                for (int[] perm : perms) {
+                    machine.advance(1);
+                    for (int c = 0; c < size; c++) {
+                        perm[c] = machine.scramble(c);
+                    }
+                }
+                for (int i = 0; i < k; i++) {
+                    for (int c = 0; c < size; c++) {
+                        product[c] = perms[i + k][perms[i][c]];
+                    }
+                    lengths[i] = cycleLengths(product, scratch);
+                }
+                keys[entry++] = key(lengths, _counts);
+
+                int slot = 2 * numRotors - 1;
+                while (slot > numRotors && state[slot] == size - 1) {
+                    state[slot] = 0;
+                    slot--;
+                }
+                if (slot == numRotors) {
+                    return keys;
+                }
+                state[slot]++;
+            }
+        }
+
+        /** Sort KEYS, those of the ground settings of order _lo, and write
+         *  them as its run. */
+        private void writeRun(long[] keys) throws IOException {
+            long[] distinct = keys.clone();
+            Arrays.sort(distinct);
+            int numKeys = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || distinct[i] != distinct[i - 1]) {
+                    distinct[numKeys++] = distinct[i];
+                }
+            }
+            int[] starts = new int[numKeys + 1];
+            int[] which = new int[keys.length];
+            for (int e = 0; e < keys.length; e++) {
+                which[e] = Arrays.binarySearch(distinct, 0, numKeys, keys[e]);
+                starts[which[e] + 1]++;
+            }
+            for (int i = 0; i < numKeys; i++) {
+                starts[i + 1] += starts[i];
+            }
+            int[] next = Arrays.copyOf(starts, numKeys);
+            int[] entries = new int[keys.length];
+            for (int e = 0; e < keys.length; e++) {
+                entries[next[which[e]]++] = e;
+            }
+
+            ByteBuffer run = ByteBuffer.allocate(numKeys
+                * (Long.BYTES + Integer.BYTES) + keys.length * Integer.BYTES);
+            int first = _lo * keys.length;
+            for (int i = 0; i < numKeys; i++) {
+                run.putLong(distinct[i]);
+                run.putInt(starts[i + 1] - starts[i]);
+                for (int j = starts[i]; j < starts[i + 1]; j++) {
+                    run.putInt(first + entries[j]);
+                }
+            }
+            run.flip();
+            long at = _next.getAndAdd(run.remaining());
+            _runAt[_lo] = at;
+            _runEnd[_lo] = at + run.remaining();
+            write(_runs, run, at);
+        }
+
+        /** Machine (without plugboard) whose copies are used. */
+        private final Machine _machine;
+
+        /** Rotor ids of each order. */
+        private final List<int[]> _orders;
+
+        /** Partition counts of the alphabet size, for computing keys. */
+        private final long[][] _counts;
+
+        /** Scratch file of runs. */
+        private final FileChannel _runs;
+
+        /** Position in _runs of the next run written. */
+        private final AtomicLong _next;
+
+        /** Start and end in _runs of the run of each order. */
+        private final long[] _runAt, _runEnd;
+
+        /** Range of order indices. */
+        private final int _lo, _hi;
+
+        /** Version for serialization. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** A cursor over one run of the scratch file, reading it through a
+     *  buffer.  Runs compare by their current keys, then their order. */
+    private static final class Run implements Comparable<Run> {
+
+        /** The run number INDEX occupying bytes START .. END-1 of
+         *  CHANNEL. */
+        Run(FileChannel channel, long start, long end, int index) {
+            _channel = channel;
+            _position = start;
+            _end = end;
+            _index = index;
+            _buf = ByteBuffer.allocate(BUFFER_SIZE);
+            _buf.flip();
+        }
+
+        /** Move to the next key of the run, having read all the entries of
+         *  the current one, returning false if there is none. */
+        boolean next() throws IOException {
+            if (_position == _end && !_buf.hasRemaining()) {
+                return false;
+            }
+            fill(Long.BYTES + Integer.BYTES);
+            _key = _buf.getLong();
+            _count = _buf.getInt();
+            return true;
+        }
+
+        /** Return the current key. */
+        long key() {
+            return _key;
+        }
+
+        /** Return the number of entries of the current key. */
+        int count() {
+            return _count;
+        }
+
+        /** Return the next entry of the current key. */
+        int nextEntry() throws IOException {
+            fill(Integer.BYTES);
+            return _buf.getInt();
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int result = Long.compare(_key, other._key);
+            return result != 0 ? result : Integer.compare(_index, other._index);
+        }
+
+        /** Make sure that at least BYTES bytes remain in _buf. */
+        private void fill(int bytes) throws IOException {
+            if (_buf.remaining() >= bytes) {
+                return;
+            }
+            _buf.compact();
+            while (_buf.position() < bytes) {
+                _buf.limit((int) Math.min(_buf.capacity(),
+                    _buf.position() + _end - _position));
+                int n = _channel.read(_buf, _position);
+                if (n <= 0) {
+                    throw new IOException("run is truncated");
+                }
+                _position += n;
+            }
+            _buf.flip();
+        }
+
+        /** Scratch file holding the run. */
+        private final FileChannel _channel;
+
+        /** End of the run in _channel. */
+        private final long _end;
+
+        /** Position in _channel of the next bytes read. */
+        private long _position;
+
+        /** Number of the run, which is that of its rotor order. */
+        private final int _index;
+
+        /** Bytes read but not yet consumed. */
+        private final ByteBuffer _buf;
+
+        /** Current key. */
+        private long _key;
+
+        /** Number of entries of _key. */
+        private int _count;
+    }
+
+    /** Buffered writes to consecutive positions of a file. */
+    private static final class Output {
+
+        /** Writes to CHANNEL starting at POSITION. */
+        Output(FileChannel channel, long position) {
+            _channel = channel;
+            _position = position;
+            _buf = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        /** Write X. */
+        void putInt(int x) throws IOException {
+            if (_buf.remaining() < Integer.BYTES) {
+                flush();
+            }
+            _buf.putInt(x);
+        }
+
+        /** Write X. */
+        void putLong(long x) throws IOException {
+            if (_buf.remaining() < Long.BYTES) {
+                flush();
+            }
+            _buf.putLong(x);
+        }
+
+        /** Write out whatever is buffered. */
+        void flush() throws IOException {
+            _buf.flip();
+            long at = _position;
+            _position += _buf.remaining();
+            write(_channel, _buf, at);
+            _buf.clear();
+        }
+
+        /** File written. */
+        private final FileChannel _channel;
+
+        /** Position in _channel of the first byte buffered. */
+        private long _position;
+
+        /** Bytes not yet written. */
+        private final ByteBuffer _buf;
+    }
+
+    /** Return the lengths of the cycles of the permutation PERM (as an
+     *  array of images), in decreasing order, using SEEN (at least as
+     *  long as PERM) as scratch space. */
+    static int[] cycleLengths(int[] perm, int[] seen) {
+        Arrays.fill(seen, 0, perm.length, 0);
+        int[] lengths = new int[perm.length];
+        int n = 0;
+        for (int c = 0; c < perm.length; c++) {
+            if (seen[c] != 0) {
+                continue;
+            }
+            int length = 0;
+            for (int d = c; seen[d] == 0; d = perm[d]) {
+                seen[d] = 1;
+                length++;
+            }
+            int i = n++;
+            while (i > 0 && lengths[i - 1] < length) {
+                lengths[i] = lengths[i - 1];
+                i--;
+            }
+            lengths[i] = length;
+        }
+        return Arrays.copyOf(lengths, n);
+    }
+
+    /** Return the key under which the characteristic LENGTHS (cycle
+     *  lengths of each product) is catalogued. */
+    static long key(int[][] lengths) {
+        int size = 0;
+        for (int length : lengths[0]) {
+            size += length;
+        }
+        return key(lengths, partitionCounts(size));
+    }
+
+    /** Return the key of the characteristic LENGTHS of permutations of
+     *  N characters, COUNTS being partitionCounts(N): the rank of each
+     *  product's cycle lengths among the partitions of N, in reverse
+     *  lexicographic order, read as a number in base p(N).  Distinct
+     *  characteristics thus have distinct keys. */
+    static long key(int[][] lengths, long[][] counts) {
+        int n = counts.length - 1;
+        long result = 0;
+        for (int[] product : lengths) {
+            long rank = 0;
+            int rest = n;
+            for (int length : product) {
+                rank += counts[rest][length - 1];
+                rest -= length;
+            }
+            result = result * counts[n][n] + rank;
+        }
+        return result;
+    }
+
+    /** Return a table whose element [R][M] is the number of partitions of
+     *  R into parts of at most M, for R, M <= N.  It is an error if
+     *  these do not fit in a long. */
+    static long[][] partitionCounts(int n) {
+        long[][] counts = new long[n + 1][n + 1];
+        for (int r = 0; r <= n; r++) {
+            counts[r][0] = r == 0 ? 1 : 0;
+            for (int m = 1; m <= n; m++) {
+                counts[r][m] = counts[r][m - 1];
+                if (m <= r) {
+                    try {
+                        counts[r][m] =
+                            Math.addExact(counts[r][m], counts[r - m][m]);
+                    } catch (ArithmeticException excp) {
+                        throw error("too many characteristics to catalogue");
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /** Return characteristic LENGTHS as text: the cycle lengths of each
+     *  product, products separated by slashes. */
+    static String format(int[][] lengths) {
+        StringBuilder result = new StringBuilder();
+        for (int[] product : lengths) {
+            if (result.length() > 0) {
+                result.append(" /");
+            }
+            for (int length : product) {
+                result.append(result.length() > 0 ? " " : "").append(length);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the number of ground settings of a machine with NUMROTORS
+     *  rotors over an alphabet of SIZE characters. */
+    private static int settingsPerOrder(int size, int numRotors) {
+        long result = 1;
+        for (int i = 1; i < numRotors; i++) {
+            result *= size;
+            if (result > Integer.MAX_VALUE) {
+                throw error("too many settings to catalogue");
+            }
+        }
+        return (int) result;
+    }
+
+    /** Return OFFSET rounded up to a multiple of 8, so that no long
+     *  stored there straddles two windows. */
+    private static long align(long offset) {
+        return (offset + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    /** Write S to OUT as its length followed by its characters. */
+    private static void putString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return the string written by putString at the position of BUF. */
+    private static String getString(ByteBuffer buf) {
+        char[] chars = new char[buf.getInt()];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + chars.length * Character.BYTES);
+        return new String(chars);
+    }
+
+    /** First four bytes of a catalogue file: "ENGK". */
+    private static final int MAGIC = 0x454E474B;
+
+    /** Version of the catalogue format. */
+    private static final int VERSION = 2;
+
+    /** Bytes in each key of the file, followed by the index of its first
+     *  entry. */
+    private static final int KEY_BYTES = 2 * Long.BYTES;
+
+    /** Bytes of the file mapped by each window; a multiple of 8. */
+    private static final int WINDOW = 1 << 30;
+
+    /** Bytes buffered for each run while merging, and for each section of
+     *  the file while writing it. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The catalogue file, mapped in windows of WINDOW bytes. */
+    private final ByteBuffer[] _windows;
+
+    /** Alphabet of the catalogued machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotors of the catalogued machine. */
+    private final int _numRotors;
+
+    /** Names of the rotors, by id. */
+    private final String[] _names;
+
+    /** Rotor ids of each rotor order. */
+    private final int[][] _orders;
+
+    /** Number of distinct keys, and of entries. */
+    private final int _numKeys, _numEntries;
+
+    /** Offsets in the file of the entries, and of the keys. */
+    private final long _entriesAt, _keysAt;
+}
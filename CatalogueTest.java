@@ -0,0 +1,48 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Catalogue class.
+ *
+ * @author Jianing Yu
+ */
+public class CatalogueTest {
+    /**
+     * Test that the catalogue finds the rotor order and ground setting of
+     * indicators enciphered with a known key.
+     */
+    @Test
+    public void testCatalogue() throws IOException {
+        Machine machine = new Machine(UPPER, 3, 2, NAVALA_ROTORS);
+        Path index = Files.createTempFile("enigma", ".cat");
+        try {
+            Catalogue.build(machine, index, ForkJoinPool.commonPool());
+            Main.setUp(machine, "* C VI III KP (AQ) (EP) (TZ) (HX) (RB)");
+            List<String> indicators = new ArrayList<>();
+            for (int i = 0; i < 26 * 26; i += 7) {
+                String key = "" + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+                machine.setRotors("KP");
+                indicators.add(machine.convert(key + key));
+            }
+            Catalogue catalogue = new Catalogue(index);
+            int[][] lengths = catalogue.characteristic(indicators);
+            List<String> found = new ArrayList<>();
+            for (int entry : catalogue.lookup(Catalogue.key(lengths))) {
+                found.add(catalogue.settingLine(entry));
+            }
+            assertTrue(found.contains("* C VI III KP"));
+        } finally {
+            Files.deleteIfExists(index);
+        }
+    }
+}
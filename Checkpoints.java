@@ -0,0 +1,457 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.error;
+
+/** A sidecar index of a run of Main over an input file: checkpoints,
+ *  taken every so many converted characters and after every setting
+ *  line, each recording the offsets reached in the input and output
+ *  files and the state of the machine there.  With the index, any range
+ *  of the output can be converted again (decrypted, if the run
+ *  encrypted) by restoring the last checkpoint before it and converting
+ *  only from there; and a run that was stopped can resume from its last
+ *  checkpoint instead of from the start.
+ *
+ *  Offsets are in bytes, counted from the characters read and written,
+ *  so the charset must be UTF-8 or a single-byte charset.  An index file
+ *  holds a header (MAGIC, VERSION, the interval between checkpoints, the
+ *  charset and the line separator) followed by the checkpoints in order.
+ *  Checkpoints are appended as they are taken, so the index of a run
+ *  that was stopped ends with its last checkpoint, or part of one, which
+ *  is ignored.
+ *  @author Jianing Yu
+ */
+final class Checkpoints {
+
+    /** An index with checkpoints every INTERVAL characters, of files in
+     *  CHARSET whose lines end with SEPARATOR. */
+    private Checkpoints(long interval, Charset charset, String separator) {
+        _interval = interval;
+        _charset = charset;
+        _separator = separator;
+        _utf8 = charset.equals(StandardCharsets.UTF_8);
+        if (!_utf8 && charset.newEncoder().maxBytesPerChar() != 1) {
+            throw error("cannot index files in %s", charset);
+        }
+    }
+
+    /** Return a writer of a new index file FILE, replacing any existing
+     *  one, for a run over files in CHARSET with a checkpoint every
+     *  INTERVAL converted characters. */
+    static Writer create(Path file, Charset charset, long interval) {
+        if (interval < 1) {
+            throw error("bad checkpoint interval: %d", interval);
+        }
+        Checkpoints index = new Checkpoints(interval, charset, SEPARATOR);
+        try {
+            FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            Writer result = index.new Writer(channel);
+            result.header();
+            return result;
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return the index read from FILE, or null if the header of FILE was
+     *  not completely written. */
+    static Checkpoints read(Path file) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+            Checkpoints result;
+            try {
+                int magic = buf.getInt();
+                if (magic != MAGIC || buf.getInt() != VERSION) {
+                    throw error("%s is not a checkpoint index", file);
+                }
+                long interval = buf.getLong();
+                Charset charset = Charset.forName(ConfigCache.getString(buf));
+                result = new Checkpoints(interval, charset,
+                    ConfigCache.getString(buf));
+            } catch (BufferUnderflowException excp) {
+                return null;
+            } catch (NegativeArraySizeException | IllegalCharsetNameException
+                     | UnsupportedCharsetException excp) {
+                throw error("%s is not a checkpoint index", file);
+            }
+            result._headerEnd = buf.position();
+            while (buf.hasRemaining()) {
+                try {
+                    result._checkpoints.add(new Checkpoint(buf));
+                } catch (BufferUnderflowException
+                         | NegativeArraySizeException excp) {
+                    /* The last checkpoint was not completely written. */
+                    break;
+                }
+                result._ends.add((long) buf.position());
+            }
+            return result;
+        } catch (IOException excp) {
+            throw error("could not read %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return a writer appending to FILE, from which I was read, after my
+     *  first COUNT checkpoints, which are kept while the rest are
+     *  removed.  Files of the run must be in CHARSET. */
+    Writer append(Path file, int count, Charset charset) {
+        if (!_charset.equals(charset) || !_separator.equals(SEPARATOR)) {
+            throw error("%s indexes files with another charset or line "
+                + "separator", file);
+        }
+        if (count < 0 || count > size()) {
+            throw error("no checkpoint %d in %s", count, file);
+        }
+        try {
+            FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE);
+            long end = count == 0 ? _headerEnd : _ends.get(count - 1);
+            channel.truncate(end);
+            channel.position(end);
+            return new Writer(channel);
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return the number of my checkpoints. */
+    int size() {
+        return _checkpoints.size();
+    }
+
+    /** Return my checkpoint K, in the order they were taken. */
+    Checkpoint get(int k) {
+        return _checkpoints.get(k);
+    }
+
+    /** Return the charset of the files I index. */
+    Charset charset() {
+        return _charset;
+    }
+
+    /** Return the number of my checkpoints up to and including the last
+     *  one that an input file of INPUTSIZE bytes and an output file of
+     *  OUTPUTSIZE bytes both reach; a run stopped with files of those
+     *  sizes can resume from that one. */
+    int reached(long inputSize, long outputSize) {
+        int result = size();
+        while (result > 0 && (get(result - 1).input() > inputSize
+                              || get(result - 1).output() > outputSize)) {
+            result--;
+        }
+        return result;
+    }
+
+    /** Return the conversion by MACHINE of the characters starting in
+     *  bytes START to END of OUTPUT, the output file of the run I index,
+     *  MACHINE being configured as the machine of that run was.  Since the
+     *  machine is its own inverse, this recovers the input of the run
+     *  that produced those characters.  Blanks and line separators are
+     *  kept as they are.  Only the characters from the last checkpoint at
+     *  or before START on are converted. */
+    String convert(Machine machine, FileChannel output, long start,
+                   long end) {
+        if (start < 0 || end < start) {
+            throw error("bad range: %d to %d", start, end);
+        }
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (get(mid).output() <= start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) {
+            throw error("no checkpoint before offset %d", start);
+        }
+        int next = lo;
+        Checkpoint from = get(next - 1);
+        from.restore(machine);
+
+        CharBuffer chars;
+        try {
+            long length = Math.min(end + MAX_WIDTH - 1, output.size())
+                - from.output();
+            ByteBuffer bytes = output.map(FileChannel.MapMode.READ_ONLY,
+                from.output(), Math.max(length, 0));
+            chars = _charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes);
+        } catch (CharacterCodingException excp) {
+            throw error("could not decode output: %s", excp.getMessage());
+        } catch (IOException excp) {
+            throw error("could not read output: %s", excp.getMessage());
+        }
+
+        Alphabet alphabet = machine.alphabet();
+        StringBuilder result = new StringBuilder();
+        long position = from.output();
+        while (chars.hasRemaining() && position < end) {
+            while (next < size() && get(next).output() == position) {
+                get(next).restore(machine);
+                next++;
+            }
+            char ch = chars.get();
+            if (position >= start) {
+                result.append(Character.isWhitespace(ch) ? ch
+                    : alphabet.toChar(machine.convert(alphabet.toInt(ch))));
+            } else if (!Character.isWhitespace(ch)) {
+                machine.convert(alphabet.toInt(ch));
+            }
+            position += width(ch);
+        }
+        return result.toString();
+    }
+
+    /** Return the number of bytes taken by CH in the files I index. A
+     *  supplementary character takes two chars and four bytes in UTF-8. */
+    int width(char ch) {
+        if (!_utf8 || ch < 0x80) {
+            return 1;
+        } else if (ch < 0x800 || Character.isSurrogate(ch)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /** Return the number of converted characters between checkpoints. */
+    long interval() {
+        return _interval;
+    }
+
+    /** Return the number of bytes taken by the separator written after
+     *  each message line. */
+    int separatorWidth() {
+        int result = 0;
+        for (int i = 0; i < _separator.length(); i++) {
+            result += width(_separator.charAt(i));
+        }
+        return result;
+    }
+
+    /** The state of a run at one point: the offsets of the next input and
+     *  output bytes, whether it is within a message line (and, if so, how
+     *  many characters of it have been written), and the machine's
+     *  state. The machine's state is kept as the last setting line, the
+     *  plugboard in effect and the rotor settings, so that it does not
+     *  depend on the order of rotors in a Machine's library. */
+    static final class Checkpoint {
+
+        /** A checkpoint at input offset INPUT and output offset OUTPUT,
+         *  within a message line of which COLUMN characters have been
+         *  written iff MESSAGE, and just after a carriage return iff
+         *  LINEFEED.  The machine was last set up by setting line SECTION,
+         *  has the plugboard given by cycles PLUGBOARD ("" for none), and
+         *  has rotor settings SETTINGS. */
+        Checkpoint(long input, long output, boolean message, boolean lineFeed,
+                   int column, String section, String plugboard,
+                   String settings) {
+            _input = input;
+            _output = output;
+            _message = message;
+            _lineFeed = lineFeed;
+            _column = column;
+            _section = section;
+            _plugboard = plugboard;
+            _settings = settings;
+        }
+
+        /** The checkpoint written by write at the position of BUF. */
+        private Checkpoint(ByteBuffer buf) {
+            _input = buf.getLong();
+            _output = buf.getLong();
+            int flags = buf.getInt();
+            _message = (flags & MESSAGE_FLAG) != 0;
+            _lineFeed = (flags & LINE_FEED_FLAG) != 0;
+            _column = buf.getInt();
+            _section = ConfigCache.getString(buf);
+            _plugboard = ConfigCache.getString(buf);
+            _settings = ConfigCache.getString(buf);
+        }
+
+        /** Write me to OUT. */
+        private void write(DataOutputStream out) throws IOException {
+            out.writeLong(_input);
+            out.writeLong(_output);
+            out.writeInt((_message ? MESSAGE_FLAG : 0)
+                | (_lineFeed ? LINE_FEED_FLAG : 0));
+            out.writeInt(_column);
+            ConfigCache.putString(out, _section);
+            ConfigCache.putString(out, _plugboard);
+            ConfigCache.putString(out, _settings);
+        }
+
+        /** Put MACHINE, configured as the machine of the run was, in the
+         *  state it had at this checkpoint. */
+        void restore(Machine machine) {
+            Main.setUp(machine, _section);
+            if (_section.indexOf('(') == -1) {
+                machine.setPlugboard(_plugboard.isEmpty() ? null
+                    : new Permutation(_plugboard, machine.alphabet()));
+            }
+            machine.setRotors(_settings);
+        }
+
+        /** Return the offset of the next input byte. */
+        long input() {
+            return _input;
+        }
+
+        /** Return the offset of the next output byte. */
+        long output() {
+            return _output;
+        }
+
+        /** Return true iff this is within a message line. */
+        boolean message() {
+            return _message;
+        }
+
+        /** Return true iff this is just after a carriage return. */
+        boolean lineFeed() {
+            return _lineFeed;
+        }
+
+        /** Return the number of characters of the current message line
+         *  written. */
+        int column() {
+            return _column;
+        }
+
+        /** Return the last setting line. */
+        String section() {
+            return _section;
+        }
+
+        /** Return the cycles of the plugboard in effect, or "". */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Offsets of the next input and output bytes. */
+        private final long _input, _output;
+
+        /** True iff within a message line, and iff just after a carriage
+         *  return. */
+        private final boolean _message, _lineFeed;
+
+        /** Characters of the current message line written. */
+        private final int _column;
+
+        /** Last setting line, plugboard cycles and rotor settings. */
+        private final String _section, _plugboard, _settings;
+    }
+
+    /** Appends the checkpoints of a run to an index file. */
+    final class Writer implements AutoCloseable {
+
+        /** A writer appending to CHANNEL. */
+        private Writer(FileChannel channel) {
+            _out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)));
+        }
+
+        /** Return the index I write to. */
+        Checkpoints index() {
+            return Checkpoints.this;
+        }
+
+        /** Write the header of my index. */
+        private void header() throws IOException {
+            _out.writeInt(MAGIC);
+            _out.writeInt(VERSION);
+            _out.writeLong(_interval);
+            ConfigCache.putString(_out, _charset.name());
+            ConfigCache.putString(_out, _separator);
+            _out.flush();
+        }
+
+        /** Append CHECKPOINT. It is passed on to the file at once, so that
+         *  it survives the end of the process. */
+        void add(Checkpoint checkpoint) {
+            try {
+                checkpoint.write(_out);
+                _out.flush();
+            } catch (IOException excp) {
+                throw error("could not write checkpoint: %s",
+                    excp.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                _out.close();
+            } catch (IOException excp) {
+                throw error("could not write checkpoint: %s",
+                    excp.getMessage());
+            }
+        }
+
+        /** Destination of the checkpoints. */
+        private final DataOutputStream _out;
+    }
+
+    /** Separator written after each message line, as by GroupWriter. */
+    private static final String SEPARATOR = System.lineSeparator();
+
+    /** Maximum number of bytes in one character. */
+    private static final int MAX_WIDTH = 3;
+
+    /** Flag of checkpoints within a message line. */
+    private static final int MESSAGE_FLAG = 1;
+
+    /** Flag of checkpoints just after a carriage return. */
+    private static final int LINE_FEED_FLAG = 2;
+
+    /** First four bytes of an index file: "ENGX". */
+    private static final int MAGIC = 0x454E4758;
+
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+
+    /** Converted characters between checkpoints. */
+    private final long _interval;
+
+    /** Charset of the indexed files. */
+    private final Charset _charset;
+
+    /** True iff _charset is UTF-8. */
+    private final boolean _utf8;
+
+    /** Line separator of the output file. */
+    private final String _separator;
+
+    /** Size of the header of my file. */
+    private long _headerEnd;
+
+    /** My checkpoints, in order. */
+    private final List<Checkpoint> _checkpoints = new ArrayList<>();
+
+    /** Offset in my file of the end of each checkpoint. */
+    private final List<Long> _ends = new ArrayList<>();
+}
@@ -0,0 +1,75 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Checkpoints class.
+ *
+ * @author Jianing Yu
+ */
+public class CheckpointsTest {
+    /**
+     * Test the checkpoint index: decrypting ranges of the output and
+     * resuming a stopped run.
+     */
+    @Test
+    public void testCheckpoints() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path config = dir.resolve("conf"), input = dir.resolve("in");
+        Path output = dir.resolve("out"), index = dir.resolve("idx");
+        Files.writeString(config, "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3\n"
+                + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+                + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+                + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+                + " IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+                + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+                + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)"
+                + " (RX) (SZ) (TV)\n");
+        Files.writeString(input, "* B Beta III IV I AXLE (HQ) (EX)\r\n"
+                + "FROM HIS SHOULDER HIAWATHA\r\nTOOK THE CAMERA\n"
+                + "* B Beta I II IV QRST\nOF ROSEWOOD\n\nMADE OF SLIDING\n");
+        String[] args = {"--index=" + index, "--interval=4",
+            config.toString(), input.toString(), output.toString()};
+        new Main(args).process();
+        String[] resume = {"--index=" + index, "--interval=4", "--resume",
+            config.toString(), input.toString(), output.toString()};
+        byte[] full = Files.readAllBytes(output);
+        byte[] fullIndex = Files.readAllBytes(index);
+
+        Checkpoints checkpoints = Checkpoints.read(index);
+        Machine machine = Main.readConfig(new java.util.Scanner(
+            Files.readString(config)));
+        String sep = System.lineSeparator();
+        try (FileChannel out = FileChannel.open(output)) {
+            String plain = checkpoints.convert(machine, out, 0, full.length);
+            assertEquals("FROMH ISSHO ULDER HIAWA THA" + sep + "TOOKT HECAM"
+                + " ERA" + sep + "OFROS EWOOD" + sep + sep + "MADEO FSLID"
+                + " ING" + sep, plain);
+            for (int start = 0; start < full.length; start += 3) {
+                assertEquals(plain.substring(start, start + 7 > full.length
+                    ? full.length : start + 7),
+                    checkpoints.convert(machine, out, start, start + 7));
+            }
+        }
+
+        for (int cut = 0; cut < full.length; cut += 9) {
+            Files.write(output, Arrays.copyOf(full, cut));
+            Files.write(index, Arrays.copyOf(fullIndex,
+                fullIndex.length * cut / full.length));
+            new Main(resume).process();
+            assertArrayEquals(full, Files.readAllBytes(output));
+            assertArrayEquals(fullIndex, Files.readAllBytes(index));
+        }
+        for (Path file : new Path[] {config, input, output, index, dir}) {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+import static enigma.EnigmaException.error;
+
+/** Ciphertext-only key search, in two stages.  The first tries every
+ *  rotor order and starting setting of a machine without a plugboard,
+ *  and ranks them by the index of coincidence of the resulting text,
+ *  which stays close to that of the plaintext when the rotors are right
+ *  even though the plugboard is wrong.  The second recovers the
+ *  plugboard of each of the best candidates by hill-climbing: plug pairs
+ *  are changed one at a time, keeping changes that improve first the
+ *  index of coincidence and then the N-gram score of the text.
+ *
+ *  The first stage runs in parallel on a ForkJoinPool, like CribSearch,
+ *  testing settings with restoreState and convert(int) without
+ *  allocating.  The second precomputes the rotor scrambling at every
+ *  position of the message, so a plugboard is tried with table lookups
+ *  alone; only the positions touched by a changed plug are deciphered
+ *  again, and the letter counts behind the index of coincidence are
+ *  updated as they are.
+ *  @author Jianing Yu
+ */
+public final class CiphertextAttack {
+
+    /** Attack the ciphertext ARGS[2] with the machine described in the
+     *  configuration file named ARGS[0], scoring with the N-gram counts in
+     *  the file named ARGS[1] (lines such as "TION 13168375"), and print
+     *  the ARGS[3] (by default, 10) best keys found, best first. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3 || args.length > 4) {
+                throw error("usage: CiphertextAttack CONFIG NGRAMS "
+                    + "CIPHERTEXT [CANDIDATES]");
+            }
+            Machine machine;
+            NGrams ngrams;
+            try {
+                machine = Main.readConfig(new Scanner(new File(args[0])));
+                ngrams = NGrams.read(new Scanner(new File(args[1])),
+                    machine.alphabet());
+            } catch (IOException excp) {
+                throw error("could not open %s", excp.getMessage());
+            }
+            int top = args.length > 3 ? Integer.parseInt(args[3])
+                : DEFAULT_CANDIDATES;
+            CiphertextAttack attack =
+                new CiphertextAttack(machine, args[2], ngrams);
+            for (Candidate candidate : attack.run(top)) {
+                System.out.println(candidate);
+            }
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** An attack on CIPHERTEXT (whitespace ignored), which was enciphered
+     *  by a configuration of MACHINE with a plugboard of at most MAXPAIRS
+     *  pairs, scoring candidate plaintexts with NGRAMS.  Rotor orders are
+     *  chosen as by CribSearch. */
+    CiphertextAttack(Machine machine, String ciphertext, NGrams ngrams,
+                     int maxPairs) {
+        _machine = machine.copy();
+        _machine.setPlugboard(null);
+        Alphabet alphabet = machine.alphabet();
+        if (ngrams.alphabet().size() != alphabet.size()) {
+            throw error("n-grams are over a different alphabet");
+        }
+        int[] cipher = new int[ciphertext.length()];
+        int len = 0;
+        for (int i = 0; i < ciphertext.length(); i++) {
+            char ch = ciphertext.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                cipher[len++] = alphabet.toInt(ch);
+            }
+        }
+        if (len < 2) {
+            throw error("ciphertext is too short");
+        }
+        _cipher = Arrays.copyOf(cipher, len);
+        _ngrams = ngrams;
+        _maxPairs = maxPairs;
+        _library = new ArrayList<>(machine.allRotors());
+        _orders = CribSearch.rotorOrders(machine, _library);
+    }
+
+    /** An attack on CIPHERTEXT enciphered by a configuration of MACHINE
+     *  with at most DEFAULT_PAIRS plug pairs, scoring with NGRAMS. */
+    CiphertextAttack(Machine machine, String ciphertext, NGrams ngrams) {
+        this(machine, ciphertext, ngrams, DEFAULT_PAIRS);
+    }
+
+    /** Return the TOP best keys found using the common ForkJoinPool,
+     *  best first. */
+    List<Candidate> run(int top) {
+        return run(top, ForkJoinPool.commonPool());
+    }
+
+    /** Return the TOP best keys found using POOL, best first. */
+    List<Candidate> run(int top, ForkJoinPool pool) {
+        List<Candidate> ranked = sweep(top, pool);
+        return pool.submit(() -> ranked.parallelStream()
+            .map(this::climb)
+            .sorted(Comparator.comparingDouble((Candidate c) -> -c._score))
+            .collect(Collectors.toList())).join();
+    }
+
+    /** Return the TOP rotor orders and settings, without a plugboard,
+     *  with the highest index of coincidence, found using POOL, best
+     *  first. */
+    List<Candidate> sweep(int top, ForkJoinPool pool) {
+        if (top < 1) {
+            throw error("must keep at least one candidate");
+        }
+        Best best = new Best(top, _machine.stateSize());
+        pool.invoke(new Sweep(0, _orders.size(), best));
+        List<Candidate> result = new ArrayList<>();
+        for (int i = 0; i < best._count; i++) {
+            result.add(candidate(best._states[i], best._scores[i]));
+        }
+        result.sort(Comparator.comparingLong((Candidate c) -> -c._coincidences)
+            .thenComparing(c -> c._start));
+        return result;
+    }
+
+    /** Return CANDIDATE with the plugboard found by hill-climbing from an
+     *  empty one, and its N-gram score and plaintext. */
+    Candidate climb(Candidate candidate) {
+        Climber climber = new Climber(candidate._state);
+        climber.climb(false);
+        climber.climb(true);
+        return climber.result(candidate);
+    }
+
+    /** A key: a rotor order, starting settings and plugboard. */
+    static final class Candidate {
+
+        /** The key with machine state STATE (as saved by
+         *  Machine.saveState), rotors named ROTORS, starting settings
+         *  START and plugboard PLUGBOARD (in cycle notation, or "" for
+         *  none), which deciphers the ciphertext to PLAINTEXT (null if not
+         *  computed), with COINCIDENCES pairs of equal letters and N-gram
+         *  score SCORE. */
+        private Candidate(int[] state, String[] rotors, String start,
+                          String plugboard, String plaintext,
+                          long coincidences, double score) {
+            _state = state;
+            _rotors = rotors;
+            _start = start;
+            _plugboard = plugboard;
+            _plaintext = plaintext;
+            _coincidences = coincidences;
+            _score = score;
+        }
+
+        /** Return the names of the rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the starting settings. */
+        String start() {
+            return _start;
+        }
+
+        /** Return the plugboard, in cycle notation. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return the deciphered text, or null if not computed. */
+        String plaintext() {
+            return _plaintext;
+        }
+
+        /** Return the number of pairs of equal letters in the deciphered
+         *  text, which is proportional to its index of coincidence. */
+        long coincidences() {
+            return _coincidences;
+        }
+
+        /** Return the N-gram score of the deciphered text, or NaN if not
+         *  computed. */
+        double score() {
+            return _score;
+        }
+
+        /** Return a setting line for this key, followed by its scores. */
+        @Override
+        public String toString() {
+            return String.format("* %s %s%s  (coincidences %d, score %.1f)",
+                String.join(" ", _rotors), _start,
+                _plugboard.isEmpty() ? "" : " " + _plugboard,
+                _coincidences, _score);
+        }
+
+        /** Machine state. */
+        private final int[] _state;
+
+        /** Rotor names. */
+        private final String[] _rotors;
+
+        /** Starting settings. */
+        private final String _start;
+
+        /** Plugboard. */
+        private final String _plugboard;
+
+        /** Deciphered text. */
+        private final String _plaintext;
+
+        /** Pairs of equal letters in _plaintext. */
+        private final long _coincidences;
+
+        /** N-gram score of _plaintext. */
+        private final double _score;
+    }
+
+    /** Return the candidate with machine state STATE, no plugboard, and
+     *  COINCIDENCES pairs of equal letters. */
+    private Candidate candidate(int[] state, long coincidences) {
+        Machine machine = _machine.copy();
+        machine.restoreState(state);
+        String[] rotors = new String[machine.numRotors()];
+        for (int i = 0; i < rotors.length; i++) {
+            rotors[i] = _library.get(state[i]).name();
+        }
+        return new Candidate(state.clone(), rotors, machine.getSettings(),
+            "", null, coincidences, Double.NaN);
+    }
+
+    /** The best states seen so far, by number of coincidences. */
+    private static final class Best {
+
+        /** Room for the best CAPACITY states of STATESIZE elements. */
+        Best(int capacity, int stateSize) {
+            _scores = new long[capacity];
+            _states = new int[capacity][stateSize];
+        }
+
+        /** Consider STATE, with SCORE coincidences. */
+        void offer(long score, int[] state) {
+            int slot;
+            if (_count < _scores.length) {
+                slot = _count++;
+            } else if (score > _scores[_worst]) {
+                slot = _worst;
+            } else {
+                return;
+            }
+            _scores[slot] = score;
+            System.arraycopy(state, 0, _states[slot], 0, state.length);
+            _worst = 0;
+            for (int i = 1; i < _count; i++) {
+                if (_scores[i] < _scores[_worst]) {
+                    _worst = i;
+                }
+            }
+        }
+
+        /** Consider all the states in OTHER. */
+        synchronized void merge(Best other) {
+            for (int i = 0; i < other._count; i++) {
+                offer(other._scores[i], other._states[i]);
+            }
+        }
+
+        /** Scores of the states kept. */
+        private final long[] _scores;
+
+        /** States kept. */
+        private final int[][] _states;
+
+        /** Number of states kept. */
+        private int _count;
+
+        /** Index of the lowest score kept. */
+        private int _worst;
+    }
+
+    /** Sweeps the rotor orders with indices in a range, splitting the
+     *  range among subtasks. */
+    private final class Sweep extends RecursiveAction {
+
+        /** Sweep the orders with indices LO .. HI-1, merging the best
+         *  states into BEST. */
+        Sweep(int lo, int hi, Best best) {
+            _lo = lo;
+            _hi = hi;
+            _best = best;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Sweep(_lo, mid, _best),
+                    new Sweep(mid, _hi, _best));
+            } else if (_hi > _lo) {
+                _best.merge(sweepOrder(_lo, _best._scores.length));
+            }
+        }
+
+        /** Range of order indices. */
+        private final int _lo, _hi;
+
+        /** Where to put the best states. */
+        private final Best _best;
+
+        /** Version for serialization. */
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Return the TOP best settings of the rotor order with index
+     *  ORDER. */
+    private Best sweepOrder(int order, int top) {
+        Machine machine = _machine.copy();
+        int numRotors = machine.numRotors();
+        int size = machine.alphabet().size();
+        int[] state = new int[machine.stateSize()];
+        System.arraycopy(_orders.get(order), 0, state, 0, numRotors);
+        Best best = new Best(top, state.length);
+        int[] counts = new int[size];
+        int[] cipher = _cipher;
+
+        while (true) {
+            machine.restoreState(state);
+            Arrays.fill(counts, 0);
+            long coincidences = 0;
+            for (int c : cipher) {
+                int p = machine.convert(c);
+                coincidences += 2 * counts[p];
+                counts[p]++;
+            }
+            best.offer(coincidences, state);
+
+            int slot = 2 * numRotors - 1;
+            while (slot > numRotors && state[slot] == size - 1) {
+                state[slot] = 0;
+                slot--;
+            }
+            if (slot == numRotors) {
+                return best;
+            }
+            state[slot]++;
+        }
+    }
+
+    /** The state of the hill-climb over plugboards for one rotor
+     *  configuration.  The plaintext at position I is
+     *  plug[S_I[plug[C_I]]], where C_I is the ciphertext and S_I the
+     *  scrambling by the rotors. */
+    private final class Climber {
+
+        /** A climber for the rotors in machine state STATE, starting with
+         *  an empty plugboard. */
+        Climber(int[] state) {
+            Machine machine = _machine.copy();
+            machine.restoreState(state);
+            _size = machine.alphabet().size();
+            int len = _cipher.length;
+            _scrambled = new int[len * _size];
+            for (int i = 0; i < len; i++) {
+                machine.advance(1);
+                for (int x = 0; x < _size; x++) {
+                    _scrambled[i * _size + x] = machine.scramble(x);
+                }
+            }
+            _plug = new int[_size];
+            _counts = new int[_size];
+            _changed = new boolean[_size];
+            _inner = new int[len];
+            _plain = new int[len];
+            for (int x = 0; x < _size; x++) {
+                _plug[x] = x;
+            }
+            for (int i = 0; i < len; i++) {
+                _inner[i] = _scrambled[i * _size + _cipher[i]];
+                _plain[i] = _inner[i];
+                _coincidences += 2 * _counts[_plain[i]];
+                _counts[_plain[i]]++;
+            }
+            _alphabet = machine.alphabet();
+        }
+
+        /** Change plug pairs while that improves the score: the N-gram
+         *  score if NGRAMS, else the number of coincidences. */
+        void climb(boolean ngrams) {
+            double best = score(ngrams);
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _size; a++) {
+                    for (int b = a + 1; b < _size; b++) {
+                        int pa = _plug[a], pb = _plug[b];
+                        if (!rewire(a, b)) {
+                            continue;
+                        }
+                        double score = score(ngrams);
+                        if (score > best) {
+                            best = score;
+                            improved = true;
+                        } else {
+                            restore(a, b, pa, pb);
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Connect A and B on the plugboard, first disconnecting them from
+         *  their partners, or disconnect them if they are connected to
+         *  each other, updating the plaintext. Return false, changing
+         *  nothing, if the plugboard would have too many pairs. */
+        private boolean rewire(int a, int b) {
+            int pa = _plug[a], pb = _plug[b];
+            if (pa == b) {
+                _plug[a] = a;
+                _plug[b] = b;
+                _pairs--;
+            } else {
+                int pairs = _pairs + 1 - (pa != a ? 1 : 0) - (pb != b ? 1 : 0);
+                if (pairs > _maxPairs) {
+                    return false;
+                }
+                _plug[pa] = pa;
+                _plug[pb] = pb;
+                _plug[a] = b;
+                _plug[b] = a;
+                _pairs = pairs;
+            }
+            update(a, b, pa, pb);
+            return true;
+        }
+
+        /** Undo rewire(A, B), where A and B were connected to PA and PB. */
+        private void restore(int a, int b, int pa, int pb) {
+            _pairs -= pairsAt(a, b);
+            _plug[a] = a;
+            _plug[b] = b;
+            _plug[pa] = a;
+            _plug[a] = pa;
+            _plug[pb] = b;
+            _plug[b] = pb;
+            _pairs += pairsAt(a, b);
+            update(a, b, pa, pb);
+        }
+
+        /** Return the number of plug pairs involving A or B. */
+        private int pairsAt(int a, int b) {
+            if (_plug[a] == b) {
+                return 1;
+            }
+            return (_plug[a] != a ? 1 : 0) + (_plug[b] != b ? 1 : 0);
+        }
+
+        /** Decipher again the positions affected by changing the plugs of
+         *  letters A, B, C and D, updating the letter counts. */
+        private void update(int a, int b, int c, int d) {
+            boolean[] changed = _changed;
+            changed[a] = changed[b] = changed[c] = changed[d] = true;
+            int[] cipher = _cipher, inner = _inner, plain = _plain;
+            int[] plug = _plug, counts = _counts, scrambled = _scrambled;
+            for (int i = 0, base = 0; i < cipher.length; i++, base += _size) {
+                int x = cipher[i];
+                if (!changed[x] && !changed[inner[i]]) {
+                    continue;
+                }
+                int y = scrambled[base + plug[x]];
+                int p = plug[y];
+                inner[i] = y;
+                int old = plain[i];
+                if (p != old) {
+                    counts[old]--;
+                    _coincidences -= 2 * counts[old];
+                    _coincidences += 2 * counts[p];
+                    counts[p]++;
+                    plain[i] = p;
+                }
+            }
+            changed[a] = changed[b] = changed[c] = changed[d] = false;
+        }
+
+        /** Return the current N-gram score if NGRAMS, else the number of
+         *  coincidences. */
+        private double score(boolean ngrams) {
+            return ngrams ? _ngrams.score(_plain, _plain.length)
+                : _coincidences;
+        }
+
+        /** Return CANDIDATE with my plugboard, plaintext and scores. */
+        Candidate result(Candidate candidate) {
+            StringBuilder plugboard = new StringBuilder();
+            for (int x = 0; x < _size; x++) {
+                if (_plug[x] > x) {
+                    if (plugboard.length() > 0) {
+                        plugboard.append(' ');
+                    }
+                    plugboard.append('(').append(_alphabet.toChar(x))
+                        .append(_alphabet.toChar(_plug[x])).append(')');
+                }
+            }
+            StringBuilder plaintext = new StringBuilder(_plain.length);
+            for (int p : _plain) {
+                plaintext.append(_alphabet.toChar(p));
+            }
+            return new Candidate(candidate._state, candidate._rotors,
+                candidate._start, plugboard.toString(),
+                plaintext.toString(), _coincidences, score(true));
+        }
+
+        /** Alphabet of the machine. */
+        private final Alphabet _alphabet;
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Scrambling by the rotors: S_I[X] is at I * _size + X. */
+        private final int[] _scrambled;
+
+        /** The plugboard, as an involution. */
+        private final int[] _plug;
+
+        /** Counts of each letter of the plaintext. */
+        private final int[] _counts;
+
+        /** Letters whose plugs are being changed. */
+        private final boolean[] _changed;
+
+        /** S_I[plug[C_I]] at each position I. */
+        private final int[] _inner;
+
+        /** The plaintext. */
+        private final int[] _plain;
+
+        /** Number of plug pairs. */
+        private int _pairs;
+
+        /** Number of pairs of equal letters in the plaintext. */
+        private long _coincidences;
+    }
+
+    /** Default maximum number of plug pairs. */
+    static final int DEFAULT_PAIRS = 10;
+
+    /** Default number of candidates kept by main. */
+    private static final int DEFAULT_CANDIDATES = 10;
+
+    /** Machine whose copies are used, without a plugboard. */
+    private final Machine _machine;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Scores for candidate plaintexts. */
+    private final NGrams _ngrams;
+
+    /** Maximum number of plug pairs. */
+    private final int _maxPairs;
+
+    /** The rotors of _machine, indexed by id. */
+    private final List<Rotor> _library;
+
+    /** The ids of the rotors of every rotor order to search. */
+    private final List<int[]> _orders;
+}
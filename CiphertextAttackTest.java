@@ -0,0 +1,39 @@
+package enigma;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the CiphertextAttack class.
+ *
+ * @author Jianing Yu
+ */
+public class CiphertextAttackTest {
+    /**
+     * Test that the ciphertext-only attack ranks the key of a known
+     * message first.
+     */
+    @Test
+    public void testCiphertextAttack() {
+        String plain = "FOUR SCORE AND SEVEN YEARS AGO OUR FATHERS BROUGHT "
+            + "FORTH ON THIS CONTINENT A NEW NATION CONCEIVED IN LIBERTY AND "
+            + "DEDICATED TO THE PROPOSITION THAT ALL MEN ARE CREATED EQUAL "
+            + "NOW WE ARE ENGAGED IN A GREAT CIVIL WAR TESTING WHETHER THAT "
+            + "NATION OR ANY NATION SO CONCEIVED AND SO DEDICATED CAN LONG "
+            + "ENDURE WE ARE MET ON A GREAT BATTLEFIELD OF THAT WAR WE HAVE "
+            + "COME TO DEDICATE A PORTION OF THAT FIELD AS A FINAL RESTING "
+            + "PLACE FOR THOSE WHO HERE GAVE THEIR LIVES THAT THAT NATION "
+            + "MIGHT LIVE IT IS ALTOGETHER FITTING AND PROPER THAT WE SHOULD "
+            + "DO THIS";
+        Machine machine = new Machine(UPPER, 3, 2, NAVALA_ROTORS);
+        Main.setUp(machine, "* B IV II QD (AQ) (EP) (TZ)");
+        String cipher = machine.convert(plain);
+        CiphertextAttack attack = new CiphertextAttack(machine, cipher,
+            NGrams.train(plain, UPPER, 3));
+        CiphertextAttack.Candidate best = attack.run(5).get(0);
+        assertArrayEquals(new String[] {"B", "IV", "II"}, best.rotors());
+        assertEquals("QD", best.start());
+        assertEquals(plain.replace(" ", ""), best.plaintext());
+    }
+}
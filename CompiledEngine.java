@@ -0,0 +1,573 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.error;
+
+/** A converter specialized to the rotors and plugboard of one machine.
+ *  compile(MACHINE) writes the bytecode of a class for MACHINE's rotor
+ *  stack and defines it as a hidden class.  Its conversion is a single
+ *  straight-line method: only the slots that can move are stepped, by
+ *  table lookups rather than tests; each rotor pass is one lookup in a
+ *  wiring table held in a static final field (which the JIT compiler
+ *  treats as a constant); and the plugboard passes are present only if
+ *  there is a plugboard.  The rotor settings are int fields of the
+ *  engine.  It converts exactly as the machine would, but records no
+ *  metrics.
+ *  @author Jianing Yu
+ */
+abstract class CompiledEngine {
+
+    /** Return an engine converting as MACHINE, whose rotors must have been
+     *  inserted, does in its current configuration, starting from its
+     *  current settings. Later changes to MACHINE do not affect it.
+     *  MACHINE may have at most MAX_ROTORS rotors, and an alphabet of at
+     *  most Alphabet.BYTE_VALUES characters, whose wiring tables, as in
+     *  Rotor, take size() squared entries per rotor. */
+    static CompiledEngine compile(Machine machine) {
+        if (machine.alphabet().size() > Alphabet.BYTE_VALUES) {
+            throw error("alphabet too large to compile: %d characters",
+                machine.alphabet().size());
+        }
+        if (machine.numRotors() > MAX_ROTORS) {
+            throw error("configuration too large to compile: %d rotors",
+                machine.numRotors());
+        }
+        Generator generator = new Generator(machine);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(generator.classFile(),
+                    generator.tables(), true);
+            CompiledEngine result = (CompiledEngine) lookup.lookupClass()
+                .getDeclaredConstructor().newInstance();
+            result.setFrom(machine);
+            return result;
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            throw new AssertionError("generated engine is invalid", excp);
+        }
+    }
+
+    /** Return the conversion of C (an alphabet index), after first
+     *  advancing the rotors, as Machine.convert(int) does. */
+    abstract int convert(int c);
+
+    /** Convert the LEN alphabet indices of IN starting at OFF, storing the
+     *  results in OUT starting at OUTOFF, as Machine.convert(int[], int,
+     *  int, int[], int) does. */
+    abstract void convert(int[] in, int off, int len, int[] out, int outOff);
+
+    /** Set the setting of the rotor in each slot K > 0 to SETTINGS[K]. */
+    abstract void load(int[] settings);
+
+    /** Store the setting of the rotor in each slot K > 0 in
+     *  SETTINGS[K]. */
+    abstract void store(int[] settings);
+
+    /** Set my rotors to the settings of MACHINE's. */
+    void setFrom(Machine machine) {
+        int[] settings = new int[machine.numRotors()];
+        for (int k = 1; k < settings.length; k++) {
+            settings[k] = machine.setting(k);
+        }
+        load(settings);
+    }
+
+    /** Set the rotors of MACHINE to my settings. */
+    void copyTo(Machine machine) {
+        int[] settings = new int[machine.numRotors()];
+        store(settings);
+        for (int k = 1; k < settings.length; k++) {
+            machine.setRotor(k, settings[k]);
+        }
+    }
+
+    /** Writes the class file of an engine, and collects the tables it
+     *  reads. */
+    private static final class Generator {
+
+        /** A generator for the configuration of MACHINE. */
+        Generator(Machine machine) {
+            int numRotors = machine.numRotors();
+            _size = machine.alphabet().size();
+            _rotors = new Rotor[numRotors];
+            for (int k = 0; k < numRotors; k++) {
+                _rotors[k] = machine.rotor(k);
+            }
+            _plugboard = machine.plugboard();
+            _pool = new ConstantPool();
+        }
+
+        /** Return the tables read by the engine, in the order of their
+         *  fields, after classFile() has been called. */
+        Object[] tables() {
+            return _tables.toArray();
+        }
+
+        /** Return the class file of the engine. */
+        byte[] classFile() {
+            int size = _size;
+            int last = _rotors.length - 1;
+            int[] wrap = new int[size + 1];
+            for (int s = 0; s <= size; s++) {
+                wrap[s] = s % size;
+            }
+            int wrapTable = table(wrap);
+            int[] forward = new int[_rotors.length];
+            int[] backward = new int[_rotors.length];
+            int[] notch = new int[_rotors.length];
+            for (int k = 1; k <= last; k++) {
+                int[] f = new int[size * size], b = new int[size * size];
+                int[] n = new int[size];
+                for (int s = 0; s < size; s++) {
+                    for (int p = 0; p < size; p++) {
+                        f[s * size + p] = _rotors[k].convertForward(p, s);
+                        b[s * size + p] = _rotors[k].convertBackward(p, s);
+                    }
+                    n[s] = _rotors[k].notchesBefore(s + 1)
+                        > _rotors[k].notchesBefore(s) ? 1 : 0;
+                }
+                forward[k] = table(f);
+                backward[k] = table(b);
+                notch[k] = table(n);
+            }
+            int[] r = new int[size];
+            for (int p = 0; p < size; p++) {
+                r[p] = _rotors[0].convertForward(p, 0);
+            }
+            int reflector = table(r);
+            int plugIn = -1, plugOut = -1;
+            if (_plugboard != null) {
+                int[] in = new int[size], out = new int[size];
+                for (int c = 0; c < size; c++) {
+                    in[c] = _plugboard.permute(c);
+                    out[c] = _plugboard.invert(c);
+                }
+                plugIn = table(in);
+                plugOut = table(out);
+            }
+
+            List<byte[]> methods = new ArrayList<>();
+            methods.add(constructor());
+            methods.add(classInitializer());
+
+            Code code = new Code();
+            for (int k = 1; k <= last; k++) {
+                if (!_rotors[k].rotates()) {
+                    continue;
+                }
+                code.op(ALOAD_0).field(GETSTATIC, wrapTable)
+                    .op(ALOAD_0).setting(GETFIELD, k);
+                if (k == last) {
+                    code.push(1);
+                } else {
+                    code.field(GETSTATIC, notch[k + 1]).op(ALOAD_0)
+                        .setting(GETFIELD, k + 1).op(IALOAD);
+                    if (_rotors[k - 1].rotates()) {
+                        code.field(GETSTATIC, notch[k]).op(ALOAD_0)
+                            .setting(GETFIELD, k).op(IALOAD).op(IOR);
+                    }
+                }
+                code.op(IADD).op(IALOAD).setting(PUTFIELD, k);
+            }
+            code.op(ILOAD_1);
+            if (_plugboard != null) {
+                code.field(GETSTATIC, plugIn).op(SWAP).op(IALOAD);
+            }
+            for (int k = last; k > 0; k--) {
+                code.field(GETSTATIC, forward[k]).op(SWAP).op(ALOAD_0)
+                    .setting(GETFIELD, k).push(size).op(IMUL).op(IADD)
+                    .op(IALOAD);
+            }
+            code.field(GETSTATIC, reflector).op(SWAP).op(IALOAD);
+            for (int k = 1; k <= last; k++) {
+                code.field(GETSTATIC, backward[k]).op(SWAP).op(ALOAD_0)
+                    .setting(GETFIELD, k).push(size).op(IMUL).op(IADD)
+                    .op(IALOAD);
+            }
+            if (_plugboard != null) {
+                code.field(GETSTATIC, plugOut).op(SWAP).op(IALOAD);
+            }
+            code.op(IRETURN);
+            methods.add(method("convert", "(I)I", code, MAX_STACK, 2));
+            methods.add(bulkConvert());
+
+            Code load = new Code();
+            Code store = new Code();
+            for (int k = 1; k <= last; k++) {
+                load.op(ALOAD_0).op(ALOAD_0 + 1).push(k).op(IALOAD)
+                    .setting(PUTFIELD, k);
+                store.op(ALOAD_0 + 1).push(k).op(ALOAD_0)
+                    .setting(GETFIELD, k).op(IASTORE);
+            }
+            methods.add(method("load", "([I)V", load.op(RETURN), 3, 2));
+            methods.add(method("store", "([I)V", store.op(RETURN), 3, 2));
+
+            return assemble(methods);
+        }
+
+        /** Return the index of a new static field holding TABLE. */
+        private int table(int[] table) {
+            _tables.add(table);
+            return _tables.size() - 1;
+        }
+
+        /** Return the constructor, which calls CompiledEngine's. */
+        private byte[] constructor() {
+            Code code = new Code().op(ALOAD_0);
+            code.op(INVOKESPECIAL).u2(_pool.methodRef(SUPER, "<init>", "()V"));
+            return method("<init>", "()V", code.op(RETURN), 1, 1);
+        }
+
+        /** Return the static initializer, which loads the table fields
+         *  from the class data. */
+        private byte[] classInitializer() {
+            Code code = new Code();
+            code.op(INVOKESTATIC).u2(_pool.methodRef(
+                "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+            code.op(LDC_W).u2(_pool.string("_"));
+            code.op(LDC_W).u2(_pool.classRef("[Ljava/lang/Object;"));
+            code.op(INVOKESTATIC).u2(_pool.methodRef(
+                "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+                + "Ljava/lang/Class;)Ljava/lang/Object;"));
+            code.op(CHECKCAST).u2(_pool.classRef("[Ljava/lang/Object;"));
+            code.op(ASTORE_0);
+            for (int t = 0; t < _tables.size(); t++) {
+                code.op(ALOAD_0).push(t).op(AALOAD);
+                code.op(CHECKCAST).u2(_pool.classRef("[I"));
+                code.field(PUTSTATIC, t);
+            }
+            return method("<clinit>", "()V", code.op(RETURN), 3, 1);
+        }
+
+        /** Return the bulk conversion method, a loop calling convert(int)
+         *  (which the JIT compiler inlines, as the class is final). */
+        private byte[] bulkConvert() {
+            /* Locals: 0 this, 1 in, 2 off, 3 len, 4 out, 5 outOff, 6 i. */
+            Code code = new Code();
+            code.op(ICONST_0).op(ISTORE).u1(6);
+            int top = code.size();
+            code.op(ILOAD).u1(6).op(ILOAD_0 + 3);
+            int exit = code.size();
+            code.op(IF_ICMPGE).u2(0);
+            code.op(ALOAD).u1(4).op(ILOAD).u1(5).op(ILOAD).u1(6).op(IADD);
+            code.op(ALOAD_0).op(ALOAD_0 + 1).op(ILOAD_0 + 2).op(ILOAD).u1(6)
+                .op(IADD).op(IALOAD);
+            code.op(INVOKEVIRTUAL).u2(_pool.methodRef(NAME, "convert",
+                "(I)I"));
+            code.op(IASTORE);
+            code.op(IINC).u1(6).u1(1);
+            int back = code.size();
+            code.op(GOTO).u2(top - back);
+            code.patch(exit + 1, code.size() - exit);
+            code.op(RETURN);
+            return method("convert", "([III[II)V", code, 6, 7);
+        }
+
+        /** Return a method named NAME with descriptor DESCRIPTOR and body
+         *  CODE, using at most MAXSTACK stack slots and MAXLOCALS
+         *  locals. */
+        private byte[] method(String name, String descriptor, Code code,
+                              int maxStack, int maxLocals) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                boolean special = name.startsWith("<");
+                out.writeShort(name.equals("<clinit>") ? ACC_STATIC
+                    : special ? 0 : ACC_FINAL);
+                out.writeShort(_pool.utf8(name));
+                out.writeShort(_pool.utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(_pool.utf8("Code"));
+                byte[] body = code.bytes();
+                out.writeInt(12 + body.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(body.length);
+                out.write(body);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return bytes.toByteArray();
+        }
+
+        /** Return the class file with methods METHODS. */
+        private byte[] assemble(List<byte[]> methods) {
+            int thisClass = _pool.classRef(NAME);
+            int superClass = _pool.classRef(SUPER);
+            int[] tableNames = new int[_tables.size()];
+            for (int t = 0; t < tableNames.length; t++) {
+                tableNames[t] = _pool.utf8("t" + t);
+            }
+            int[] settingNames = new int[_rotors.length];
+            for (int k = 1; k < settingNames.length; k++) {
+                settingNames[k] = _pool.utf8("s" + k);
+            }
+            int arrayType = _pool.utf8("[I");
+            int intType = _pool.utf8("I");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                out.writeShort(0);
+                out.writeShort(CLASS_VERSION);
+                _pool.write(out);
+                out.writeShort(ACC_FINAL | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(0);
+                out.writeShort(tableNames.length + settingNames.length - 1);
+                for (int name : tableNames) {
+                    out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+                    out.writeShort(name);
+                    out.writeShort(arrayType);
+                    out.writeShort(0);
+                }
+                for (int k = 1; k < settingNames.length; k++) {
+                    out.writeShort(ACC_PRIVATE);
+                    out.writeShort(settingNames[k]);
+                    out.writeShort(intType);
+                    out.writeShort(0);
+                }
+                out.writeShort(methods.size());
+                for (byte[] method : methods) {
+                    out.write(method);
+                }
+                out.writeShort(0);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return bytes.toByteArray();
+        }
+
+        /** Bytecode of a method body. */
+        private final class Code {
+
+            /** Append opcode OP. */
+            Code op(int op) {
+                _code.write(op);
+                return this;
+            }
+
+            /** Append the byte B. */
+            Code u1(int b) {
+                _code.write(b);
+                return this;
+            }
+
+            /** Append the two-byte value V. */
+            Code u2(int v) {
+                _code.write(v >>> 8);
+                _code.write(v);
+                return this;
+            }
+
+            /** Append an instruction pushing the int V. */
+            Code push(int v) {
+                if (v >= -1 && v <= 5) {
+                    return op(ICONST_0 + v);
+                } else if (v == (byte) v) {
+                    return op(BIPUSH).u1(v);
+                } else if (v == (short) v) {
+                    return op(SIPUSH).u2(v);
+                }
+                return op(LDC_W).u2(_pool.integer(v));
+            }
+
+            /** Append instruction OP (GETSTATIC or PUTSTATIC) on table
+             *  field T. */
+            Code field(int op, int t) {
+                return op(op).u2(_pool.fieldRef(NAME, "t" + t, "[I"));
+            }
+
+            /** Append instruction OP (GETFIELD or PUTFIELD) on the
+             *  setting field of slot K. */
+            Code setting(int op, int k) {
+                return op(op).u2(_pool.fieldRef(NAME, "s" + k, "I"));
+            }
+
+            /** Return the number of bytes so far. */
+            int size() {
+                return _code.size();
+            }
+
+            /** Overwrite the two bytes at AT with V. */
+            void patch(int at, int v) {
+                _patches.put(at, v);
+            }
+
+            /** Return the bytecode. */
+            byte[] bytes() {
+                byte[] result = _code.toByteArray();
+                for (Map.Entry<Integer, Integer> p : _patches.entrySet()) {
+                    result[p.getKey()] = (byte) (p.getValue() >>> 8);
+                    result[p.getKey() + 1] = (byte) (int) p.getValue();
+                }
+                return result;
+            }
+
+            /** The bytes so far. */
+            private final ByteArrayOutputStream _code =
+                new ByteArrayOutputStream();
+
+            /** Two-byte values to overwrite, by offset. */
+            private final Map<Integer, Integer> _patches = new HashMap<>();
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** The rotors, reflector first. */
+        private final Rotor[] _rotors;
+
+        /** The plugboard, or null. */
+        private final Permutation _plugboard;
+
+        /** Constants of the class file. */
+        private final ConstantPool _pool;
+
+        /** Tables read by the engine, one per static field. */
+        private final List<int[]> _tables = new ArrayList<>();
+    }
+
+    /** The constant pool of a class file, each constant being added
+     *  once. */
+    private static final class ConstantPool {
+
+        /** Return the index of the UTF8 constant S. */
+        int utf8(String s) {
+            return add("U" + s, CONSTANT_UTF8, s);
+        }
+
+        /** Return the index of the int constant V. */
+        int integer(int v) {
+            return add("I" + v, CONSTANT_INTEGER, v);
+        }
+
+        /** Return the index of the string constant S. */
+        int string(String s) {
+            return add("S" + s, CONSTANT_STRING, utf8(s));
+        }
+
+        /** Return the index of the class constant for internal name
+         *  NAME. */
+        int classRef(String name) {
+            return add("C" + name, CONSTANT_CLASS, utf8(name));
+        }
+
+        /** Return the index of the field OWNER.NAME of type TYPE. */
+        int fieldRef(String owner, String name, String type) {
+            return add("F" + owner + "." + name + ":" + type,
+                CONSTANT_FIELDREF, classRef(owner), nameAndType(name, type));
+        }
+
+        /** Return the index of the method OWNER.NAME with descriptor
+         *  TYPE. */
+        int methodRef(String owner, String name, String type) {
+            return add("M" + owner + "." + name + type, CONSTANT_METHODREF,
+                classRef(owner), nameAndType(name, type));
+        }
+
+        /** Return the index of the name-and-type NAME, TYPE. */
+        private int nameAndType(String name, String type) {
+            return add("N" + name + ":" + type, CONSTANT_NAME_AND_TYPE,
+                utf8(name), utf8(type));
+        }
+
+        /** Return the index of the constant KEY, with tag TAG and
+         *  contents VALUES, adding it if need be. */
+        private int add(String key, int tag, Object... values) {
+            Integer index = _indices.get(key);
+            if (index == null) {
+                index = _entries.size() + 1;
+                if (index > MAX_CONSTANTS) {
+                    throw error("configuration too large to compile");
+                }
+                Object[] entry = Arrays.copyOf(new Object[] {tag},
+                    values.length + 1);
+                System.arraycopy(values, 0, entry, 1, values.length);
+                _entries.add(entry);
+                _indices.put(key, index);
+            }
+            return index;
+        }
+
+        /** Write the constant pool count and constants to OUT. */
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(_entries.size() + 1);
+            for (Object[] entry : _entries) {
+                int tag = (Integer) entry[0];
+                out.writeByte(tag);
+                if (tag == CONSTANT_UTF8) {
+                    out.writeUTF((String) entry[1]);
+                } else if (tag == CONSTANT_INTEGER) {
+                    out.writeInt((Integer) entry[1]);
+                } else {
+                    for (int i = 1; i < entry.length; i++) {
+                        out.writeShort((Integer) entry[i]);
+                    }
+                }
+            }
+        }
+
+        /** Constants, each a tag followed by its contents. */
+        private final List<Object[]> _entries = new ArrayList<>();
+
+        /** Index of each constant, by a key naming it. */
+        private final Map<String, Integer> _indices = new HashMap<>();
+    }
+
+    /** Internal name of generated engines (to which the JVM adds a
+     *  suffix). */
+    private static final String NAME = "enigma/GeneratedEngine";
+
+    /** Internal name of their superclass. */
+    private static final String SUPER = "enigma/CompiledEngine";
+
+    /** Class file magic number. */
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /** Class file version: Java 5, the last whose verifier needs no stack
+     *  map frames. */
+    private static final int CLASS_VERSION = 49;
+
+    /** Most rotors in a machine that can be compiled.  convert(int) takes
+     *  at most 58 bytes of code per rotor, and a method at most 65535. */
+    static final int MAX_ROTORS = 1000;
+
+    /** Most stack slots used by convert(int). */
+    private static final int MAX_STACK = 8;
+
+    /** Most constants in a class file. */
+    private static final int MAX_CONSTANTS = 65534;
+
+    /** Access flags. */
+    private static final int ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008,
+        ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    /** Constant pool tags. */
+    private static final int CONSTANT_UTF8 = 1, CONSTANT_INTEGER = 3,
+        CONSTANT_CLASS = 7, CONSTANT_STRING = 8, CONSTANT_FIELDREF = 9,
+        CONSTANT_METHODREF = 10, CONSTANT_NAME_AND_TYPE = 12;
+
+    /** Opcodes. */
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+        LDC_W = 0x13, ILOAD = 0x15, ALOAD = 0x19, ILOAD_0 = 0x1a,
+        ILOAD_1 = 0x1b, ALOAD_0 = 0x2a, IALOAD = 0x2e, AALOAD = 0x32,
+        ISTORE = 0x36, ASTORE_0 = 0x4b, IASTORE = 0x4f, SWAP = 0x5f,
+        IADD = 0x60, IMUL = 0x68, IOR = 0x80, IINC = 0x84,
+        IF_ICMPGE = 0xa2, GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1,
+        GETSTATIC = 0xb2, PUTSTATIC = 0xb3, GETFIELD = 0xb4,
+        PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7,
+        INVOKESTATIC = 0xb8, CHECKCAST = 0xc0;
+}
@@ -0,0 +1,96 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the CompiledEngine class.
+ *
+ * @author Jianing Yu
+ */
+public class CompiledEngineTest {
+    /**
+     * Test that a compiled engine converts as its machine does.
+     */
+    @Test
+    public void testCompiledEngine() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(new Permutation("(YF) (ZH)", UPPER));
+        CompiledEngine engine = machine.compile();
+
+        int[] input = new int[2000];
+        int[] output = new int[input.length];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (i * 11) % 26;
+        }
+        engine.convert(input, 0, input.length, output, 0);
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(machine.convert(input[i]), output[i]);
+        }
+        Machine copy = machine.copy();
+        copy.setRotors("AAAA");
+        engine.copyTo(copy);
+        assertEquals(machine.getSettings(), copy.getSettings());
+        assertEquals(machine.convert(7), engine.convert(7));
+    }
+
+    /**
+     * Test that the largest rotor stack allowed compiles and converts as
+     * its machine does, and that larger stacks and alphabets too large to
+     * table are rejected as errors.
+     */
+    @Test
+    public void testLimits() {
+        Random random = new Random(22);
+        Machine machine = stack(CompiledEngine.MAX_ROTORS, random);
+        CompiledEngine engine = machine.compile();
+        for (int t = 0; t < 200; t++) {
+            int c = random.nextInt(26);
+            assertEquals(machine.convert(c), engine.convert(c));
+        }
+
+        try {
+            stack(CompiledEngine.MAX_ROTORS + 1, random).compile();
+            fail("too many rotors compiled");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        Machine wide = randomMachine(wideAlphabet(Alphabet.BYTE_VALUES + 2),
+            random);
+        try {
+            wide.compile();
+            fail("too large an alphabet compiled");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Return a machine over UPPER with a reflector and N - 1 moving
+     *  rotors, all wired at random by RANDOM, inserted and set at
+     *  random. */
+    private static Machine stack(int n, Random random) {
+        List<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[n];
+        names[0] = "R";
+        rotors.add(new Reflector("R", randomPermutation(UPPER, random, true)));
+        StringBuilder settings = new StringBuilder();
+        for (int k = 1; k < n; k++) {
+            names[k] = "M" + k;
+            rotors.add(new MovingRotor(names[k],
+                randomPermutation(UPPER, random, false),
+                String.valueOf(UPPER.toChar(random.nextInt(26)))));
+            settings.append(UPPER.toChar(random.nextInt(26)));
+        }
+        Machine machine = new Machine(UPPER, n, n - 1, rotors);
+        machine.insertRotors(names);
+        machine.setRotors(settings.toString());
+        return machine;
+    }
+}
@@ -0,0 +1,231 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.error;
+
+/** Reads configuration files through a compiled cache.  The first time a
+ *  configuration is read, its alphabet and rotors (types, notches and
+ *  permutation tables) are written in a binary form to a file next to
+ *  it, whose name is the configuration's name with ".bin" appended.  On
+ *  later reads the cache file is mapped into memory and decoded directly,
+ *  without parsing the configuration.  The cache records a hash of the
+ *  configuration's contents, and is rewritten whenever it does not match.
+ *  It ends with a CRC-32 of the rest of it, so that a damaged cache is
+ *  also rewritten rather than trusted.  The time taken, whether or not
+ *  the cache is used, is recorded as that of reading the configuration.
+ *  @author Jianing Yu
+ */
+final class ConfigCache {
+
+    /** Not instantiable. */
+    private ConfigCache() {
+    }
+
+    /** Return an Enigma machine configured from the configuration file
+     *  named NAME, as Main.readConfig would, using and updating its
+     *  cache. */
+    static Machine load(String name) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        byte[] text;
+        try {
+            text = Files.readAllBytes(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        byte[] hash = hash(text);
+        Path cache = Paths.get(name + SUFFIX);
+
+        Machine result = read(cache, hash);
+        if (result == null) {
+            result = Main.parseConfig(
+                new Scanner(new String(text, Charset.defaultCharset())));
+            write(cache, hash, result);
+        }
+        if (Metrics.ENABLED) {
+            Metrics.configRead(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /** Return the machine stored in the cache file CACHE, or null if there
+     *  is none, or if it was not compiled from a configuration with
+     *  hash HASH. */
+    private static Machine read(Path cache, byte[] hash) {
+        if (!Files.isRegularFile(cache)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cache)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+            int end = buf.limit() - Integer.BYTES;
+            if (end < 0) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().limit(end));
+            if ((int) crc.getValue() != buf.getInt(end)) {
+                return null;
+            }
+            buf.limit(end);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[hash.length];
+            buf.get(stored);
+            if (!Arrays.equals(stored, hash)) {
+                return null;
+            }
+
+            Alphabet alphabet = new Alphabet(getString(buf));
+            int numRotors = buf.getInt();
+            int pawls = buf.getInt();
+            int count = buf.getInt();
+            List<Rotor> allRotors = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                char type = buf.getChar();
+                String rotorName = getString(buf);
+                String notches = getString(buf);
+                int[] table = new int[alphabet.size()];
+                buf.asIntBuffer().get(table);
+                buf.position(buf.position() + table.length * Integer.BYTES);
+                Permutation perm = new Permutation(table, alphabet);
+                if (type == 'M') {
+                    allRotors.add(new MovingRotor(rotorName, perm, notches));
+                } else if (type == 'N') {
+                    allRotors.add(new FixedRotor(rotorName, perm));
+                } else if (type == 'R') {
+                    allRotors.add(new Reflector(rotorName, perm));
+                } else {
+                    return null;
+                }
+            }
+            return new Machine(alphabet, numRotors, pawls, allRotors);
+        } catch (IOException | BufferUnderflowException
+                 | NegativeArraySizeException | IllegalArgumentException
+                 | EnigmaException excp) {
+            /* An unreadable or damaged cache is compiled again. */
+            return null;
+        }
+    }
+
+    /** Write MACHINE, configured from a file with hash HASH, to the cache
+     *  file CACHE.  Failure to write the cache is not an error: the
+     *  configuration is simply parsed again next time. */
+    private static void write(Path cache, byte[] hash, Machine machine) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+
+            Alphabet alphabet = machine.alphabet();
+            StringBuilder chars = new StringBuilder(alphabet.size());
+            for (int i = 0; i < alphabet.size(); i++) {
+                chars.append(alphabet.toChar(i));
+            }
+            putString(out, chars.toString());
+            out.writeInt(machine.numRotors());
+            out.writeInt(machine.numPawls());
+            out.writeInt(machine.allRotors().size());
+            for (Rotor rotor : machine.allRotors()) {
+                out.writeChar(rotor.reflecting() ? 'R'
+                    : rotor.rotates() ? 'M' : 'N');
+                putString(out, rotor.name());
+                StringBuilder notches = new StringBuilder();
+                for (int k = 0; k < rotor.size(); k++) {
+                    if (rotor.notchesBefore(k + 1) > rotor.notchesBefore(k)) {
+                        notches.append(alphabet.toChar(k));
+                    }
+                }
+                putString(out, notches.toString());
+                Permutation perm = rotor.permutation();
+                for (int k = 0; k < perm.size(); k++) {
+                    out.writeInt(perm.permute(k));
+                }
+            }
+        } catch (IOException excp) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        int check = (int) crc.getValue();
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes.write(check >>> shift);
+        }
+
+        Path dir = cache.toAbsolutePath().getParent();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(dir, cache.getFileName().toString(),
+                ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            try {
+                Files.move(temp, cache, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    /* Nothing more can be done. */
+                }
+            }
+        }
+    }
+
+    /** Return the hash of configuration contents TEXT. */
+    private static byte[] hash(byte[] text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new AssertionError("SHA-256 is always available", excp);
+        }
+    }
+
+    /** Write S to OUT as its length followed by its characters. */
+    static void putString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    /** Return the string written by putString at the position of BUF. */
+    static String getString(ByteBuffer buf) {
+        char[] chars = new char[buf.getInt()];
+        buf.asCharBuffer().get(chars);
+        buf.position(buf.position() + chars.length * Character.BYTES);
+        return new String(chars);
+    }
+
+    /** Suffix added to the name of a configuration to get that of its
+     *  cache. */
+    static final String SUFFIX = ".bin";
+
+    /** First four bytes of a cache file: "ENGC". */
+    private static final int MAGIC = 0x454E4743;
+
+    /** Version of the cache format. */
+    private static final int VERSION = 2;
+}
@@ -0,0 +1,121 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the ConfigCache class.
+ *
+ * @author Jianing Yu
+ */
+public class ConfigCacheTest {
+    /**
+     * Test that a configuration loaded through a new cache, and again
+     * through the cache written then, gives the machine Main.readConfig
+     * gives, and that the second load leaves the cache as it was.
+     */
+    @Test
+    public void testLoad() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path config = dir.resolve("conf");
+        Path cache = dir.resolve("conf" + ConfigCache.SUFFIX);
+        String name = config.toString();
+        Files.writeString(config, NAVALA_CONFIG);
+        String expected = convert(Main.readConfig(new Scanner(NAVALA_CONFIG)));
+
+        long before = readConfigCount();
+        assertEquals(expected, convert(ConfigCache.load(name)));
+        byte[] written = Files.readAllBytes(cache);
+        assertEquals(expected, convert(ConfigCache.load(name)));
+        assertArrayEquals(written, Files.readAllBytes(cache));
+        if (Metrics.ENABLED) {
+            assertEquals(before + 2, readConfigCount());
+        }
+        delete(config, cache, dir);
+    }
+
+    /**
+     * Test that editing a configuration makes its cache be compiled
+     * again.
+     */
+    @Test
+    public void testEdited() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path config = dir.resolve("conf");
+        Path cache = dir.resolve("conf" + ConfigCache.SUFFIX);
+        String name = config.toString();
+        Files.writeString(config, NAVALA_CONFIG);
+        ConfigCache.load(name);
+        byte[] old = Files.readAllBytes(cache);
+
+        String edited = NAVALA_CONFIG.replace("(IV) (JZ) (S)", "(IV) (JS) (Z)");
+        Files.writeString(config, edited);
+        String expected = convert(Main.readConfig(new Scanner(edited)));
+        assertNotEquals(convert(Main.readConfig(new Scanner(NAVALA_CONFIG))),
+            expected);
+        assertEquals(expected, convert(ConfigCache.load(name)));
+        assertFalse(Arrays.equals(old, Files.readAllBytes(cache)));
+        assertEquals(expected, convert(ConfigCache.load(name)));
+        delete(config, cache, dir);
+    }
+
+    /**
+     * Test that a truncated or corrupted cache is compiled again rather
+     * than used or reported as an error.
+     */
+    @Test
+    public void testDamaged() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path config = dir.resolve("conf");
+        Path cache = dir.resolve("conf" + ConfigCache.SUFFIX);
+        String name = config.toString();
+        Files.writeString(config, NAVALA_CONFIG);
+        String expected = convert(Main.readConfig(new Scanner(NAVALA_CONFIG)));
+        ConfigCache.load(name);
+        byte[] good = Files.readAllBytes(cache);
+
+        for (int length : new int[] {0, 3, 40, good.length / 2,
+                                     good.length - 1}) {
+            Files.write(cache, Arrays.copyOf(good, length));
+            assertEquals(expected, convert(ConfigCache.load(name)));
+            assertArrayEquals(good, Files.readAllBytes(cache));
+        }
+        for (int at = 0; at < good.length; at += 97) {
+            byte[] bad = good.clone();
+            bad[at] ^= 0x10;
+            Files.write(cache, bad);
+            assertEquals(expected, convert(ConfigCache.load(name)));
+            assertArrayEquals(good, Files.readAllBytes(cache));
+        }
+        delete(config, cache, dir);
+    }
+
+    /** Return the conversion of a message by MACHINE, set up with a
+     *  plugboard. */
+    private static String convert(Machine machine) {
+        Main.setUp(machine, "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR)");
+        return machine.convert("FROMHISSHOULDERHIAWATHATOOKTHECAMERAOF"
+            + "ROSEWOODMADEOFSLIDINGFOLDINGROSEWOODNEATLYPUTITALLTOGETHER"
+            .repeat(20));
+    }
+
+    /** Return the number of configurations read so far, as recorded by
+     *  Metrics. */
+    private static long readConfigCount() {
+        return Arrays.stream(Metrics.snapshot().readConfigNanos()).sum();
+    }
+
+    /** Delete FILES, in order. */
+    private static void delete(Path... files) throws IOException {
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+}
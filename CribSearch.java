@@ -0,0 +1,381 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.error;
+
+/** Known-plaintext key search.  Given a ciphertext and a crib (a guess at
+ *  part of the plaintext) at some candidate positions, finds every choice
+ *  of reflector, rotor order and rotor settings of a machine under which
+ *  the crib enciphers to the ciphertext at one of those positions.
+ *
+ *  Rather than trying every starting setting and seeking to each
+ *  position, the search tries every setting the rotors could have when
+ *  the crib starts, and works back to the starting settings only for the
+ *  rare settings that match.  Rotor orders are searched in parallel on a
+ *  ForkJoinPool, each on its own copy of the machine; within an order,
+ *  candidates are tested with restoreState and convert(int) on reused
+ *  arrays, stopping at the first mismatch, without allocating.
+ *  @author Jianing Yu
+ */
+public final class CribSearch {
+
+    /** Search the configurations of the machine described in the
+     *  configuration file named ARGS[0] for those enciphering the crib
+     *  ARGS[2] to the ciphertext ARGS[1] at one of the positions ARGS[3..]
+     *  (by default, all positions), printing a setting line for each. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("usage: CribSearch CONFIG CIPHERTEXT CRIB "
+                    + "[POSITION ...]");
+            }
+            Machine machine;
+            try {
+                machine = Main.readConfig(new Scanner(new File(args[0])));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            int[] positions = null;
+            if (args.length > 3) {
+                positions = new int[args.length - 3];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = Integer.parseInt(args[i + 3]);
+                }
+            }
+            CribSearch search =
+                new CribSearch(machine, args[1], args[2], positions);
+            for (Hit hit : search.run()) {
+                System.out.println(hit);
+            }
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A search of the configurations of MACHINE's rotor library for
+     *  those enciphering CRIB to CIPHERTEXT at one of POSITIONS (indices
+     *  into CIPHERTEXT with whitespace removed), or at any position if
+     *  POSITIONS is null.  MACHINE's plugboard, if any, is used for all
+     *  configurations.  The first numRotors() - numPawls() slots take
+     *  non-moving rotors (the first a reflector), and the rest moving
+     *  ones.  Ring settings are not part of this model. */
+    CribSearch(Machine machine, String ciphertext, String crib,
+               int[] positions) {
+        _machine = machine.copy();
+        Alphabet alphabet = machine.alphabet();
+        _cipher = toInts(ciphertext, alphabet);
+        _crib = toInts(crib, alphabet);
+        if (_crib.length == 0 || _crib.length > _cipher.length) {
+            throw error("crib must be non-empty and fit in the ciphertext");
+        }
+        if (positions == null) {
+            positions = new int[_cipher.length - _crib.length + 1];
+            Arrays.setAll(positions, i -> i);
+        }
+        for (int p : positions) {
+            if (p < 0 || p + _crib.length > _cipher.length) {
+                throw error("crib does not fit at position %d", p);
+            }
+        }
+        _positions = positions.clone();
+        _library = new ArrayList<>(machine.allRotors());
+        _orders = rotorOrders(machine, _library);
+    }
+
+    /** Return the configurations consistent with the crib, found using
+     *  the common ForkJoinPool, ordered by rotor order, setting and
+     *  position. */
+    List<Hit> run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /** Return the configurations consistent with the crib, found using
+     *  POOL, ordered by rotor order, setting and position. */
+    List<Hit> run(ForkJoinPool pool) {
+        Queue<Hit> hits = new ConcurrentLinkedQueue<>();
+        pool.invoke(new Orders(0, _orders.size(), hits));
+        List<Hit> result = new ArrayList<>(hits);
+        result.sort(Comparator.comparingInt((Hit h) -> h._order)
+            .thenComparing(h -> h._start)
+            .thenComparingInt(h -> h._position));
+        return result;
+    }
+
+    /** A configuration consistent with the crib. */
+    static final class Hit {
+
+        /** A hit for the rotor order with index ORDER, rotors named
+         *  ROTORS, starting settings START, the crib being at POSITION
+         *  where the settings are AT. */
+        private Hit(int order, String[] rotors, String start, int position,
+                    String at) {
+            _order = order;
+            _rotors = rotors;
+            _start = start;
+            _position = position;
+            _at = at;
+        }
+
+        /** Return the names of the rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return the starting settings of the rotors. */
+        String start() {
+            return _start;
+        }
+
+        /** Return the position of the crib in the ciphertext. */
+        int position() {
+            return _position;
+        }
+
+        /** Return the settings of the rotors when the crib starts. */
+        String settingsAtCrib() {
+            return _at;
+        }
+
+        /** Return a setting line for this configuration, followed by the
+         *  position of the crib. */
+        @Override
+        public String toString() {
+            return String.format("* %s %s  (crib at %d, settings %s)",
+                String.join(" ", _rotors), _start, _position, _at);
+        }
+
+        /** Index of the rotor order. */
+        private final int _order;
+
+        /** Names of the rotors. */
+        private final String[] _rotors;
+
+        /** Starting settings. */
+        private final String _start;
+
+        /** Position of the crib. */
+        private final int _position;
+
+        /** Settings when the crib starts. */
+        private final String _at;
+    }
+
+    /** Searches the rotor orders with indices in a range, splitting the
+     *  range among subtasks. */
+    private final class Orders extends RecursiveAction {
+
+        /** Search the orders with indices LO .. HI-1, adding hits to
+         *  HITS. */
+        Orders(int lo, int hi, Queue<Hit> hits) {
+            _lo = lo;
+            _hi = hi;
+            _hits = hits;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Orders(_lo, mid, _hits),
+                    new Orders(mid, _hi, _hits));
+            } else if (_hi > _lo) {
+                searchOrder(_lo, _hits);
+            }
+        }
+
+        /** Range of order indices. */
+        private final int _lo, _hi;
+
+        /** Version for serialization. */
+        private static final long serialVersionUID = 1L;
+
+        /** Where to put hits. */
+        private final Queue<Hit> _hits;
+    }
+
+    /** Try every setting of the rotor order with index ORDER at every
+     *  crib position, adding hits to HITS. */
+    private void searchOrder(int order, Queue<Hit> hits) {
+        Machine machine = _machine.copy();
+        int numRotors = machine.numRotors();
+        int size = machine.alphabet().size();
+        int[] ids = _orders.get(order);
+        int[] state = new int[machine.stateSize()];
+        System.arraycopy(ids, 0, state, 0, numRotors);
+        state[2 * numRotors] = machine.plugboardId();
+
+        int[] positions = _positions;
+        if (_library.get(ids[0]).permutation().derangement()) {
+            positions = possiblePositions();
+        }
+
+        int[] crib = _crib, cipher = _cipher;
+        while (true) {
+            for (int p : positions) {
+                machine.restoreState(state);
+                int i;
+                for (i = 0; i < crib.length; i++) {
+                    if (machine.convert(crib[i]) != cipher[p + i]) {
+                        break;
+                    }
+                }
+                if (i == crib.length) {
+                    addHits(machine, order, state, p, hits);
+                }
+            }
+            int slot = 2 * numRotors - 1;
+            while (slot > numRotors && state[slot] == size - 1) {
+                state[slot] = 0;
+                slot--;
+            }
+            if (slot == numRotors) {
+                return;
+            }
+            state[slot]++;
+        }
+    }
+
+    /** Return the candidate positions at which no character of the crib
+     *  is enciphered to itself, which a machine whose reflector has no
+     *  fixed points cannot do, whatever its plugboard. */
+    private int[] possiblePositions() {
+        int[] result = new int[_positions.length];
+        int n = 0;
+        for (int p : _positions) {
+            boolean possible = true;
+            for (int i = 0; i < _crib.length && possible; i++) {
+                possible = _crib[i] != _cipher[p + i];
+            }
+            if (possible) {
+                result[n++] = p;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Add to HITS the starting settings of rotor order ORDER from which
+     *  MACHINE reaches the settings in STATE after POSITION characters.
+     *  Only the moving rotors change, the rightmost one on every
+     *  character, so only the settings of the others need to be tried.
+     *  Settings that cannot be reached at all are not reported. */
+    private void addHits(Machine machine, int order, int[] state,
+                         int position, Queue<Hit> hits) {
+        int numRotors = machine.numRotors();
+        int size = machine.alphabet().size();
+        int firstMoving = numRotors - machine.numPawls();
+        int last = 2 * numRotors - 1;
+        int[] start = state.clone();
+        start[last] = Math.floorMod(state[last] - position, size);
+        for (int i = numRotors + firstMoving; i < last; i++) {
+            start[i] = 0;
+        }
+
+        machine.restoreState(state);
+        String at = machine.getSettings();
+        String[] rotors = new String[numRotors];
+        for (int i = 0; i < numRotors; i++) {
+            rotors[i] = _library.get(state[i]).name();
+        }
+        while (true) {
+            machine.restoreState(start);
+            String from = machine.getSettings();
+            machine.advance(position);
+            if (machine.getSettings().equals(at)) {
+                hits.add(new Hit(order, rotors, from, position, at));
+            }
+            int slot = last - 1;
+            while (slot >= numRotors + firstMoving
+                   && start[slot] == size - 1) {
+                start[slot] = 0;
+                slot--;
+            }
+            if (slot < numRotors + firstMoving) {
+                return;
+            }
+            start[slot]++;
+        }
+    }
+
+    /** Return the ids (indices in LIBRARY) of the rotors of every rotor
+     *  order that MACHINE accepts: a reflector, non-moving rotors in the
+     *  remaining slots to the left of the pawls, and moving rotors in the
+     *  slots with pawls. */
+    static List<int[]> rotorOrders(Machine machine, List<Rotor> library) {
+        List<int[]> result = new ArrayList<>();
+        addOrders(machine, library, new int[machine.numRotors()], 0, result);
+        if (result.isEmpty()) {
+            throw error("no rotor order fits this machine");
+        }
+        return result;
+    }
+
+    /** Add to RESULT every rotor order of MACHINE from LIBRARY whose first
+     *  SLOT rotors are those in ORDER. */
+    private static void addOrders(Machine machine, List<Rotor> library,
+                                  int[] order, int slot, List<int[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        boolean moving = slot >= machine.numRotors() - machine.numPawls();
+        outer:
+        for (int id = 0; id < library.size(); id++) {
+            Rotor rotor = library.get(id);
+            if (slot == 0 ? !rotor.reflecting()
+                : rotor.reflecting() || rotor.rotates() != moving) {
+                continue;
+            }
+            for (int i = 0; i < slot; i++) {
+                if (order[i] == id) {
+                    continue outer;
+                }
+            }
+            order[slot] = id;
+            addOrders(machine, library, order, slot + 1, result);
+        }
+    }
+
+    /** Return the indices in ALPHABET of the characters of TEXT, ignoring
+     *  whitespace. */
+    private static int[] toInts(String text, Alphabet alphabet) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                result[n++] = alphabet.toInt(ch);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Machine whose copies are searched. */
+    private final Machine _machine;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** The crib, as alphabet indices. */
+    private final int[] _crib;
+
+    /** Candidate positions of the crib. */
+    private final int[] _positions;
+
+    /** The rotors of _machine, indexed by id. */
+    private final List<Rotor> _library;
+
+    /** The ids of the rotors of every rotor order to search. */
+    private final List<int[]> _orders;
+}
@@ -0,0 +1,34 @@
+package enigma;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the CribSearch class.
+ *
+ * @author Jianing Yu
+ */
+public class CribSearchTest {
+    /**
+     * Test that a crib search finds the key and crib position of a known
+     * message.
+     */
+    @Test
+    public void testCribSearch() {
+        Machine machine = new Machine(UPPER, 3, 2, NAVALA_ROTORS);
+        Main.setUp(machine, "* C VII II QD (AQ) (EP)");
+        String cipher = machine.convert("WEATHERREPORTFORTODAYISCLEARSKIES");
+        CribSearch search =
+            new CribSearch(machine, cipher, "ISCLEARSKIES", null);
+        boolean found = false;
+        for (CribSearch.Hit hit : search.run()) {
+            found |= Arrays.equals(new String[] {"C", "VII", "II"},
+                hit.rotors()) && hit.start().equals("QD")
+                && hit.position() == 21;
+        }
+        assertTrue(found);
+    }
+}
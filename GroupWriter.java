@@ -0,0 +1,128 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.error;
+
+/** Writes the output of a Transcriber to a channel: the characters of each
+ *  message line in groups of five separated by blanks, and a line
+ *  separator for each LINE_END marker.  Formatting and encoding go through
+ *  buffers that are reused for the whole output.
+ *  @author Jianing Yu
+ */
+class GroupWriter {
+
+    /** A writer sending text encoded in CHARSET to OUT through a byte
+     *  buffer of CAPACITY bytes, which is a direct buffer iff DIRECT. */
+    GroupWriter(WritableByteChannel out, Charset charset, int capacity,
+                boolean direct) {
+        _out = out;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _chars = CharBuffer.allocate(capacity);
+        _bytes = direct ? ByteBuffer.allocateDirect(capacity)
+            : ByteBuffer.allocate(capacity);
+    }
+
+    /** A writer sending text encoded in CHARSET to OUT. */
+    GroupWriter(WritableByteChannel out, Charset charset) {
+        this(out, charset, DEFAULT_CAPACITY, false);
+    }
+
+    /** Format and write the remaining characters of CONVERTED, which come
+     *  from Transcriber.transcribe. */
+    void write(CharBuffer converted) {
+        while (converted.hasRemaining()) {
+            if (_chars.remaining() < LINE_SEPARATOR.length() + 1) {
+                drain();
+            }
+            char ch = converted.get();
+            if (ch == Transcriber.LINE_END) {
+                _chars.put(LINE_SEPARATOR);
+                _column = 0;
+                continue;
+            }
+            if (_column != 0 && _column % 5 == 0) {
+                _chars.put(' ');
+            }
+            _chars.put(ch);
+            _column++;
+        }
+    }
+
+    /** Continue a message line of which COLUMN characters were written
+     *  by an earlier writer. */
+    void continueLine(int column) {
+        _column = column;
+    }
+
+    /** Write out everything formatted so far. */
+    void flush() {
+        drain();
+    }
+
+    /** Return the number of bytes written to my channel so far. */
+    long written() {
+        return _written;
+    }
+
+    /** Encode the formatted characters and write them to my channel. */
+    private void drain() {
+        _chars.flip();
+        try {
+            while (true) {
+                CoderResult result = _encoder.encode(_chars, _bytes, false);
+                if (result.isOverflow() || _bytes.position() > 0) {
+                    writeBytes();
+                }
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _chars.compact();
+    }
+
+    /** Write all of _bytes to my channel. */
+    private void writeBytes() throws IOException {
+        _bytes.flip();
+        while (_bytes.hasRemaining()) {
+            _written += _out.write(_bytes);
+        }
+        _bytes.clear();
+    }
+
+    /** Size of the reusable buffers, in characters and bytes. */
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** Separator written after each message line, as by println. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Destination of my output. */
+    private final WritableByteChannel _out;
+
+    /** Encoder from formatted characters to output bytes. */
+    private final CharsetEncoder _encoder;
+
+    /** Formatted characters waiting to be encoded. */
+    private final CharBuffer _chars;
+
+    /** Encoded bytes waiting to be written. */
+    private final ByteBuffer _bytes;
+
+    /** Number of characters written on the current line so far. */
+    private int _column;
+
+    /** Number of bytes written to _out. */
+    private long _written;
+}
@@ -0,0 +1,37 @@
+package enigma;
+
+/** The innermost loop of MachineLanes: the pass of the contact of each
+ *  lane through the tabled wiring of one rotor slot, done here one lane
+ *  at a time.  Builds with the "vector" profile add a subclass,
+ *  VectorLaneKernel, that does it with the incubating Vector API; create
+ *  returns one when the JVM runs with --add-modules jdk.incubator.vector.
+ *  @author Jianing Yu
+ */
+class LaneKernel {
+
+    /** Return a VectorLaneKernel if one was built and the Vector API is
+     *  available, unless the system property enigma.vector is false;
+     *  otherwise a LaneKernel. */
+    static LaneKernel create() {
+        if (System.getProperty("enigma.vector", "true").equals("false")) {
+            return new LaneKernel();
+        }
+        try {
+            return (LaneKernel) Class.forName("enigma.VectorLaneKernel")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new LaneKernel();
+        }
+    }
+
+    /** Replace each of the first LANES elements C of CONTACTS by
+     *  WIRING[S * SIZE + C], where S is the element of SETTINGS for its
+     *  lane.  SCRATCH has room for LANES elements, which may be
+     *  overwritten. */
+    void pass(int[] wiring, int[] settings, int[] contacts, int size,
+              int lanes, int[] scratch) {
+        for (int lane = 0; lane < lanes; lane++) {
+            contacts[lane] = wiring[settings[lane] * size + contacts[lane]];
+        }
+    }
+}
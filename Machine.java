@@ -1,12 +1,26 @@
 package enigma;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static enigma.EnigmaException.*;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  The rotors of a
+ *  machine are immutable and may be shared with other machines; its own
+ *  state is the settings of its rotor slots and its plugboard.
  *  @author Jianing Yu
  */
 class Machine {
@@ -20,8 +34,54 @@ class Machine {
         _numRotors = numRotors;
         _pawls = pawls;
         _allRotors = allRotors;
+        _library = new ArrayList<>(allRotors);
+        _ids = new HashMap<>();
+        for (int id = _library.size() - 1; id >= 0; id--) {
+            _ids.put(_library.get(id).name(), id);
+        }
+        _plugboards = new Plugboards();
 
+        _selected = new BitSet(_library.size());
         _activeRotors = new ArrayList<>(numRotors);
+        _activeIds = new int[numRotors];
+        _settings = new int[numRotors];
+        _initialSettings = new int[numRotors];
+        _unpacked = new int[2 * numRotors + 1];
+    }
+
+    /** A machine with the rotors, settings and plugboard of ORIGINAL, which
+     *  shares its rotors and plugboard ids but whose rotors can be set and
+     *  advanced independently. */
+    private Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _numRotors = original._numRotors;
+        _pawls = original._pawls;
+        _allRotors = original._allRotors;
+        _library = original._library;
+        _ids = original._ids;
+        _plugboards = original._plugboards;
+
+        _selected = new BitSet(_library.size());
+        _activeRotors = new ArrayList<>(original._activeRotors);
+        _activeIds = original._activeIds.clone();
+        _settings = original._settings.clone();
+        _initialSettings = original._initialSettings.clone();
+        _unpacked = new int[2 * _numRotors + 1];
+        _fastForward = original._fastForward;
+        _plugboard = original._plugboard;
+        _plugboardId = original._plugboardId;
+    }
+
+    /** Return a machine with my rotors, settings and plugboard whose
+     *  rotors can be advanced independently of mine. States saved by
+     *  either machine can be restored by the other. */
+    Machine copy() {
+        return new Machine(this);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -34,36 +94,124 @@ class Machine {
         return _pawls;
     }
 
+    /** Return the rotor in slot I (0 being the reflector). */
+    Rotor rotor(int i) {
+        if (i < 0 || i >= _activeRotors.size()) {
+            throw error("no rotor in slot %d", i);
+        }
+        return _activeRotors.get(i);
+    }
+
+    /** Return the setting of the rotor in slot I. */
+    int setting(int i) {
+        if (i < 0 || i >= _activeRotors.size()) {
+            throw error("no rotor in slot %d", i);
+        }
+        return _settings[i];
+    }
+
+    /** Set the rotor in slot I > 0 to SETTING, as if by stepping: the
+     *  settings seek(long) counts from are unchanged. */
+    void setRotor(int i, int setting) {
+        if (i < 1 || i >= _activeRotors.size() || setting < 0
+            || setting >= _alphabet.size()) {
+            throw error("bad slot or setting: %d, %d", i, setting);
+        }
+        _settings[i] = setting;
+    }
+
+    /** Return my plugboard, or null if I have none. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return an engine converting as I do in my current configuration,
+     *  generated for my rotors and plugboard (see CompiledEngine). */
+    CompiledEngine compile() {
+        return CompiledEngine.compile(this);
+    }
+
+    /** Return the cache of setting lines applied to me, creating it if
+     *  need be. */
+    SetupCache setups() {
+        if (_setups == null) {
+            _setups = new SetupCache(SetupCache.DEFAULT_CAPACITY);
+        }
+        return _setups;
+    }
+
+    /** Return the rotors available to me. */
+    Collection<Rotor> allRotors() {
+        return _allRotors;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        if (rotors.length != _numRotors) {
+            throw error("Wrong number of rotors");
+        }
+        int[] ids = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i++) {
+            ids[i] = rotorId(rotors[i]);
+        }
+        insertRotors(ids);
+    }
+
+    /** Set my rotor slots to the rotors whose ids (positions in my library,
+     *  as returned by rotorId) are IDS, IDS[0] being the reflector.
+     *  Initially, all rotors are set at their 0 setting. */
+    void insertRotors(int[] ids) {
+        if (ids.length != _numRotors) {
+            throw error("Wrong number of rotors");
+        }
         _activeRotors.clear();
-        for (int i = 0, len = rotors.length; i < len; i++) {
-            String rotorName = rotors[i];
-            Rotor rotor = getRotor(rotorName);
-            if (_activeRotors.contains(rotor)) {
-                throw error("Duplicate rotors selected: %s", rotorName);
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                int id = ids[i];
+                if (id < 0 || id >= _library.size()) {
+                    throw error("bad rotor id: %d", id);
+                }
+                Rotor rotor = _library.get(id);
+                if (_selected.get(id)) {
+                    throw error("Duplicate rotors selected: %s",
+                        rotor.name());
+                }
+                if (i == 0 && !rotor.reflecting()) {
+                    throw error("The first rotor is not a reflector.");
+                }
+                if (i > 0 && rotor.reflecting()) {
+                    throw error("Reflector %s is not the first rotor.",
+                        rotor.name());
+                }
+                rotor.prepare();
+                _selected.set(id);
+                _activeIds[i] = id;
+                _activeRotors.add(rotor);
             }
-            if (i == 0 && !rotor.reflecting()) {
-                throw error("The first rotor is not a reflector.");
+        } finally {
+            for (int i = 0; i < _activeRotors.size(); i++) {
+                _selected.clear(_activeIds[i]);
             }
-            _activeRotors.add(rotor);
         }
+
+        Arrays.fill(_settings, 0);
+        Arrays.fill(_initialSettings, 0);
+        _fastForward = !hasAdjacentNotches();
     }
 
     /**
-     * Get rotor from all available rotors by name.
+     * Get the id of a rotor from all available rotors by name.
      * @param name the rotor name.
-     * @return the Rotor.
+     * @return the position of the rotor in my library.
      */
-    private Rotor getRotor(String name) {
-        for (Rotor rotor : _allRotors) {
-            if (rotor.name().equals(name)) {
-                return rotor;
-            }
+    int rotorId(String name) {
+        Integer id = _ids.get(name);
+        if (id == null) {
+            throw error("Unable to find rotor named %s.", name);
         }
-        throw error("Unable to find rotor named %s.", name);
+        return id;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -74,8 +222,8 @@ class Machine {
             throw error("Wrong number of settings");
         }
         for (int i = 1; i < _numRotors; i++) {
-            Rotor rotor = _activeRotors.get(i);
-            rotor.set(setting.charAt(i - 1));
+            _settings[i] = _alphabet.toInt(setting.charAt(i - 1));
+            _initialSettings[i] = _settings[i];
         }
     }
 
@@ -87,9 +235,7 @@ class Machine {
     String getSettings() {
         String settings = "";
         for (int i = 1; i < _activeRotors.size(); i++) {
-            Rotor activeRotor = _activeRotors.get(i);
-            int setting = activeRotor.setting();
-            settings += _alphabet.toChar(setting);
+            settings += _alphabet.toChar(_settings[i]);
         }
         return settings;
     }
@@ -97,6 +243,151 @@ class Machine {
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        _plugboardId = -1;
+    }
+
+    /** Return the id of my plugboard in saved states. */
+    int plugboardId() {
+        if (_plugboardId < 0) {
+            _plugboardId = _plugboards.id(_plugboard);
+        }
+        return _plugboardId;
+    }
+
+    /** Return the length of the arrays used by saveState and
+     *  restoreState. */
+    int stateSize() {
+        return 2 * _numRotors + 1;
+    }
+
+    /** Store my state in the first stateSize() elements of STATE: the ids
+     *  of my rotors from left to right (their positions in my library),
+     *  then their settings, then the id of my plugboard (0 for none).
+     *  Plugboard ids are shared with all my copies. */
+    void saveState(int[] state) {
+        saveRotorState(state);
+        state[2 * _numRotors] = plugboardId();
+    }
+
+    /** Store my state in STATE as saveState does, but with a plugboard id
+     *  of -1, so that restoring it leaves the plugboard as it is.  Unlike
+     *  saveState, this gives my plugboard no id, which would keep it for
+     *  as long as I and my copies live. */
+    void saveRotorState(int[] state) {
+        for (int i = 0; i < _numRotors; i++) {
+            state[i] = _activeIds[i];
+            state[_numRotors + i] = _settings[i];
+        }
+        state[2 * _numRotors] = -1;
+    }
+
+    /** Return my state, as stored by saveState. */
+    int[] state() {
+        int[] result = new int[stateSize()];
+        saveState(result);
+        return result;
+    }
+
+    /** Restore the state STATE saved by saveState (or saveRotorState) on
+     *  me or one of my copies, as if by insertRotors, setRotors and
+     *  setPlugboard; a plugboard id of -1 leaves my plugboard as it is.
+     *  Takes time proportional to the number of rotors, and does not
+     *  allocate once all slots are filled. */
+    void restoreState(int[] state) {
+        boolean reordered = false;
+        for (int i = 0; i < _numRotors; i++) {
+            int id = state[i];
+            if (_activeRotors.size() == i) {
+                _activeRotors.add(null);
+            } else if (_activeIds[i] == id) {
+                continue;
+            }
+            if (id < 0 || id >= _library.size()) {
+                throw error("bad rotor id in state: %d", id);
+            }
+            Rotor rotor = _library.get(id);
+            if (i == 0 && !rotor.reflecting()) {
+                throw error("The first rotor is not a reflector.");
+            }
+            if (i > 0 && rotor.reflecting()) {
+                throw error("Reflector %s is not the first rotor.",
+                    rotor.name());
+            }
+            for (int j = 0; j < _numRotors; j++) {
+                if (j != i && state[j] == id) {
+                    throw error("Duplicate rotors selected: %s",
+                        rotor.name());
+                }
+            }
+            rotor.prepare();
+            _activeRotors.set(i, rotor);
+            _activeIds[i] = id;
+            reordered = true;
+        }
+        for (int i = 1; i < _numRotors; i++) {
+            int setting = state[_numRotors + i];
+            if (setting < 0 || setting >= _alphabet.size()) {
+                throw error("bad setting in state: %d", setting);
+            }
+            _settings[i] = setting;
+            _initialSettings[i] = setting;
+        }
+        int plugboard = state[2 * _numRotors];
+        if (plugboard >= 0 && plugboard != _plugboardId) {
+            _plugboard = _plugboards.get(plugboard);
+            _plugboardId = plugboard;
+        }
+        if (reordered) {
+            _fastForward = !hasAdjacentNotches();
+        }
+    }
+
+    /** Return my state, as saved by saveState, packed into a long: from
+     *  the least significant bits up, the rotor ids, the settings of all
+     *  rotors but the reflector, and the plugboard id. It is an error if
+     *  the state does not fit. */
+    long packState() {
+        int idBits = bitsFor(_library.size());
+        int settingBits = bitsFor(_alphabet.size());
+        int plugboardBits = Long.SIZE - _numRotors * idBits
+            - (_numRotors - 1) * settingBits;
+        int plugboard = plugboardId();
+        if (plugboardBits < 0 || plugboardBits < Integer.SIZE
+            && plugboard >>> plugboardBits != 0) {
+            throw error("machine state does not fit in a long");
+        }
+        long result = plugboard;
+        for (int i = _numRotors - 1; i > 0; i--) {
+            result = result << settingBits | _settings[i];
+        }
+        for (int i = _numRotors - 1; i >= 0; i--) {
+            result = result << idBits | _activeIds[i];
+        }
+        return result;
+    }
+
+    /** Restore the state PACKED returned by packState on me or one of my
+     *  copies, as restoreState does. */
+    void restoreState(long packed) {
+        int idBits = bitsFor(_library.size());
+        int settingBits = bitsFor(_alphabet.size());
+        int[] state = _unpacked;
+        for (int i = 0; i < _numRotors; i++) {
+            state[i] = (int) (packed & ((1L << idBits) - 1));
+            packed >>>= idBits;
+        }
+        state[_numRotors] = 0;
+        for (int i = 1; i < _numRotors; i++) {
+            state[_numRotors + i] = (int) (packed & ((1L << settingBits) - 1));
+            packed >>>= settingBits;
+        }
+        state[2 * _numRotors] = (int) packed;
+        restoreState(state);
+    }
+
+    /** Return the number of bits needed to hold the numbers 0 .. N-1. */
+    private static int bitsFor(int n) {
+        return Math.max(Integer.SIZE - Integer.numberOfLeadingZeros(n - 1), 0);
     }
 
     /** Returns the result of converting the input character C (as an
@@ -112,70 +403,462 @@ class Machine {
          6. Plugboard again;
          */
 
-        advanceRotors();
+        advanceRotors(_activeRotors.size() - 1);
+        if (Metrics.ENABLED) {
+            Metrics.converted();
+        }
+        return scramble(c);
+    }
 
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1) at my current settings,
+     *  without advancing the machine first. */
+    int scramble(int c) {
         if (_plugboard != null) {
             c = _plugboard.permute(c);
         }
-
+        int[] settings = _settings;
         for (int i = _activeRotors.size() - 1; i > 0; i--) {
-            Rotor activeRotor = _activeRotors.get(i);
-            c = activeRotor.convertForward(c);
+            c = _activeRotors.get(i).convertForward(c, settings[i]);
         }
-
-        c = _activeRotors.get(0).convertForward(c);
-
+        c = _activeRotors.get(0).convertForward(c, 0);
         for (int i = 1; i < _activeRotors.size(); i++) {
-            Rotor activeRotor = _activeRotors.get(i);
-            c = activeRotor.convertBackward(c);
+            c = _activeRotors.get(i).convertBackward(c, settings[i]);
         }
-
         if (_plugboard != null) {
             c = _plugboard.invert(c);
         }
-
         return c;
     }
 
     /**
-     * Advance rotors as needed.
+     * Advance the rotors in slots 1 .. END as needed for one character,
+     * returning true iff any of them moved. Rotors are visited from left
+     * to right, so the notch of each rotor and of its right neighbour is
+     * read before either of them moves.
      */
-    private void advanceRotors() {
-        boolean[] advanced = new boolean[_activeRotors.size()];
-        advanced[_activeRotors.size() - 1] = true;
-        for (int i = _activeRotors.size() - 1; i > 0; i--) {
+    private boolean advanceRotors(int end) {
+        int[] settings = _settings;
+        int last = _activeRotors.size() - 1;
+        boolean moved = false;
+        for (int i = 1; i <= end; i++) {
             Rotor activeRotor = _activeRotors.get(i);
-            Rotor leftRotor = _activeRotors.get(i - 1);
-            if (activeRotor.atNotch() && leftRotor.rotates()) {
-                advanced[i] = true;
-                 advanced[i - 1] = true;
+            if (!activeRotor.rotates()) {
+                continue;
+            }
+            boolean carried = i != last
+                && _activeRotors.get(i + 1).atNotch(settings[i + 1]);
+            if (i == last || carried
+                    || activeRotor.atNotch(settings[i])
+                    && _activeRotors.get(i - 1).rotates()) {
+                if (Metrics.ENABLED) {
+                    Metrics.advanced(i, i != last && !carried);
+                }
+                int next = settings[i] + 1;
+                settings[i] = next == _alphabet.size() ? 0 : next;
+                moved = true;
             }
         }
+        return moved;
+    }
 
+    /** Set my rotors to the state they reach when N characters are
+     *  converted starting from the settings last given to setRotors (or
+     *  the settings the rotors had when inserted). */
+    void seek(long n) {
         for (int i = 1; i < _activeRotors.size(); i++) {
-            Rotor activeRotor = _activeRotors.get(i);
-            if (activeRotor.rotates() && advanced[i]) {
-                activeRotor.advance();
+            _settings[i] = _initialSettings[i];
+        }
+        advance(n);
+    }
+
+    /** Advance my rotors exactly as converting N characters would, in
+     *  time proportional to the number of rotors rather than to N.
+     *
+     *  Only the last slot steps on every character, if its rotor
+     *  rotates. Rotating rotors left of a fixed rotor step only on the
+     *  character after one of them reaches a notch, which it then
+     *  leaves, so they come to rest within a few characters and are
+     *  advanced one character at a time until they do.
+     *
+     *  In the rightmost run of rotating rotors, the rightmost steps on
+     *  every character. Each other rotor in
+     *  the run steps once for every character on which its right
+     *  neighbour sits at a notch, and, if it is not the leftmost of the
+     *  run, once more on the character after it lands on one of its own
+     *  notches (the double step).  As long as no such rotor has two
+     *  adjacent notches, a rotor never receives a step while it sits at
+     *  a notch, so its position after T characters follows from the
+     *  number of notches its right neighbour passed during those T
+     *  characters.  The only ambiguity is whether a rotor that just
+     *  reached a notch has already double-stepped, which depends on its
+     *  neighbour one character earlier; hence positions are computed for
+     *  the last few characters of the interval, right to left.
+     *
+     *  Machines with adjacent notches are advanced one character at a
+     *  time. */
+    void advance(long n) {
+        if (n < 0) {
+            throw error("Cannot advance by a negative count");
+        }
+        int last = _activeRotors.size() - 1;
+        if (n == 0 || last < 1) {
+            return;
+        }
+        int first = last + 1;
+        if (_activeRotors.get(last).rotates()) {
+            first = last;
+            while (first > 1 && _activeRotors.get(first - 1).rotates()) {
+                first--;
+            }
+        }
+        int chain = last - first + 1;
+
+        if (!_fastForward || n <= chain) {
+            for (long i = 0; i < n; i++) {
+                advanceRotors(last);
+            }
+            return;
+        }
+
+        /* The first step may start from settings no machine could reach
+         * by stepping (e.g. a rotor resting on its notch), so take it
+         * explicitly. */
+        advanceRotors(last);
+        long total = n - 1;
+
+        /* The rotors left of the run do not depend on it, since the slot
+         * between them holds a fixed rotor. */
+        for (long i = 0; i < total && advanceRotors(first - 1); i++) {
+            continue;
+        }
+        if (chain == 0) {
+            return;
+        }
+
+        long[][] moved = new long[chain][chain];
+        boolean[][] atNotch = new boolean[chain][chain];
+        for (int j = last; j >= first; j--) {
+            int k = j - first;
+            Rotor rotor = _activeRotors.get(j);
+            int start = _settings[j];
+            for (int d = 0; d <= k; d++) {
+                long steps;
+                if (j == last) {
+                    steps = total - d;
+                } else {
+                    Rotor right = _activeRotors.get(j + 1);
+                    long carries =
+                        notchesIn(right, _settings[j + 1], moved[k + 1][d]);
+                    if (j == first) {
+                        steps = carries;
+                    } else {
+                        steps = stepsFor(rotor, start, carries);
+                        if (isNotch(rotor, start, steps)
+                            && !atNotch[k + 1][d + 1]) {
+                            steps++;
+                        }
+                    }
+                }
+                moved[k][d] = steps;
+                atNotch[k][d] = j != first && isNotch(rotor, start, steps);
+            }
+        }
+
+        for (int j = first; j <= last; j++) {
+            long setting = _settings[j] + moved[j - first][0];
+            _settings[j] = (int) (setting % _alphabet.size());
+        }
+    }
+
+    /** Return true iff some rotor whose left neighbour rotates has two
+     *  adjacent notches, which advance(long) cannot fast-forward. */
+    private boolean hasAdjacentNotches() {
+        for (int i = 2; i < _activeRotors.size(); i++) {
+            if (_activeRotors.get(i - 1).rotates()
+                && _activeRotors.get(i).adjacentNotches()) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /** Return true iff ROTOR has a notch STEPS positions after setting
+     *  START. */
+    private static boolean isNotch(Rotor rotor, int start, long steps) {
+        int posn = (int) ((start + steps) % rotor.size());
+        return rotor.notchesBefore(posn + 1) != rotor.notchesBefore(posn);
+    }
+
+    /** Return the number of notches of ROTOR among the LENGTH settings
+     *  starting at START (counted cyclically, possibly many times). */
+    private static long notchesIn(Rotor rotor, int start, long length) {
+        int size = rotor.size();
+        int perTurn = rotor.notchesBefore(size);
+        long count = length / size * perTurn;
+        int end = start + (int) (length % size);
+        if (end <= size) {
+            count += rotor.notchesBefore(end) - rotor.notchesBefore(start);
+        } else {
+            count += perTurn - rotor.notchesBefore(start)
+                + rotor.notchesBefore(end - size);
+        }
+        return count;
+    }
+
+    /** Return the number of steps ROTOR, starting at START, needs to
+     *  leave CARRIES settings that are not notches, i.e. the least L such
+     *  that L settings from START contain exactly CARRIES non-notches. */
+    private static long stepsFor(Rotor rotor, int start, long carries) {
+        if (carries == 0) {
+            return 0;
+        }
+        int size = rotor.size();
+        int free = size - rotor.notchesBefore(size);
+        long turns = (carries - 1) / free;
+        long rest = carries - turns * free;
+        int lo = 1, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mid - notchesIn(rotor, start, mid) >= rest) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return turns * size + lo;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String result = "";
-        for (int i = 0; i < msg.length(); i++) {
-            char ch = msg.charAt(i);
+        char[] chars = msg.toCharArray();
+        int produced = convert(chars, 0, chars.length, chars, 0);
+        return new String(chars, 0, produced);
+    }
+
+    /** Converts the LEN characters of IN starting at OFF, skipping
+     *  whitespace, and stores the results in OUT starting at OUTOFF.
+     *  All LEN characters are consumed, so OUT must have room for LEN
+     *  characters. IN and OUT may be the same array if OUTOFF <= OFF.
+     *  Returns the number of characters produced. */
+    int convert(char[] in, int off, int len, char[] out, int outOff) {
+        int pos = outOff;
+        for (int i = off, end = off + len; i < end; i++) {
+            char ch = in[i];
             if (Character.isWhitespace(ch)) {
                 continue;
             }
-            int code = _alphabet.toInt(ch);
-            int encrypted = convert(code);
-            result += _alphabet.toChar(encrypted);
+            out[pos] = _alphabet.toChar(convert(_alphabet.toInt(ch)));
+            pos++;
+        }
+        return pos - outOff;
+    }
+
+    /** Returns the encoding/decoding of MSG as convert(String) does,
+     *  converting segments of a long message concurrently. */
+    String convertParallel(String msg) {
+        char[] chars = msg.toCharArray();
+        char[] result = new char[chars.length];
+        int produced = convertParallel(chars, 0, chars.length, result, 0);
+        return new String(result, 0, produced);
+    }
+
+    /** Converts the LEN characters of IN starting at OFF into OUT starting
+     *  at OUTOFF, exactly as convert(char[], int, int, char[], int) does,
+     *  but splits long inputs into segments that are converted
+     *  concurrently on the common ForkJoinPool. Each segment gets its own
+     *  copy of this machine, advanced to the keystroke at which the
+     *  segment starts. IN and OUT must not overlap. Returns the number of
+     *  characters produced. A machine with adjacent notches can only
+     *  advance one character at a time, so it converts serially instead:
+     *  advancing each copy would cost as much as converting. */
+    int convertParallel(char[] in, int off, int len, char[] out, int outOff) {
+        int segments = Math.min(len / MIN_SEGMENT,
+                ForkJoinPool.getCommonPoolParallelism() * SEGMENTS_PER_THREAD);
+        if (segments <= 1 || !_fastForward) {
+            return convert(in, off, len, out, outOff);
+        }
+
+        int[] starts = new int[segments + 1];
+        for (int i = 0; i <= segments; i++) {
+            starts[i] = off + (int) ((long) len * i / segments);
+        }
+        int[] keystrokes = new int[segments + 1];
+        IntStream.range(0, segments).parallel().forEach(i -> {
+            int count = 0;
+            for (int j = starts[i]; j < starts[i + 1]; j++) {
+                if (!Character.isWhitespace(in[j])) {
+                    count++;
+                }
+            }
+            keystrokes[i + 1] = count;
+        });
+        for (int i = 0; i < segments; i++) {
+            keystrokes[i + 1] += keystrokes[i];
+        }
+
+        Machine origin = copy();
+        IntStream.range(0, segments).parallel().forEach(i -> {
+            Machine segment = origin.copy();
+            segment.advance(keystrokes[i]);
+            segment.convert(in, starts[i], starts[i + 1] - starts[i],
+                    out, outOff + keystrokes[i]);
+        });
+
+        advance(keystrokes[segments]);
+        return keystrokes[segments];
+    }
+
+    /** Converts characters from IN to OUT, skipping whitespace, until IN
+     *  is exhausted or OUT is full. The positions of both buffers are
+     *  advanced past the characters consumed and produced. Returns the
+     *  number of characters produced. */
+    int convert(CharBuffer in, CharBuffer out) {
+        int produced = 0;
+        while (in.hasRemaining()) {
+            char ch = in.get(in.position());
+            if (!Character.isWhitespace(ch)) {
+                if (!out.hasRemaining()) {
+                    break;
+                }
+                out.put(_alphabet.toChar(convert(_alphabet.toInt(ch))));
+                produced++;
+            }
+            in.position(in.position() + 1);
+        }
+        return produced;
+    }
+
+    /** Converts the LEN alphabet indices of IN starting at OFF and stores
+     *  the results in OUT starting at OUTOFF. IN and OUT may be the same
+     *  array if OUTOFF <= OFF. Returns the number of indices produced,
+     *  which is always LEN. */
+    int convert(int[] in, int off, int len, int[] out, int outOff) {
+        for (int i = 0; i < len; i++) {
+            out[outOff + i] = convert(in[off + i]);
+        }
+        return len;
+    }
+
+    /** Converts bytes from IN to OUT until IN is exhausted or OUT is
+     *  full.  Each byte, taken as unsigned, is the index of a symbol in my
+     *  alphabet, which must have 256 symbols (as Alphabet.bytes() does);
+     *  no byte is skipped and no charset is involved.  The positions of
+     *  both buffers are advanced past the bytes converted. IN and OUT may
+     *  share memory if OUT's position is not after IN's. Returns the
+     *  number of bytes converted. */
+    int convert(ByteBuffer in, ByteBuffer out) {
+        checkBytes();
+        int n = Math.min(in.remaining(), out.remaining());
+        int inPos = in.position(), outPos = out.position();
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            byte[] src = in.array(), dst = out.array();
+            int s = in.arrayOffset() + inPos, d = out.arrayOffset() + outPos;
+            for (int i = 0; i < n; i++) {
+                dst[d + i] = (byte) convert(src[s + i] & BYTE_MASK);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                out.put(outPos + i,
+                    (byte) convert(in.get(inPos + i) & BYTE_MASK));
+            }
+        }
+        in.position(inPos + n);
+        out.position(outPos + n);
+        return n;
+    }
+
+    /** Converts the bytes of IN from its position to its end, as
+     *  convert(ByteBuffer, ByteBuffer) does, writing them to OUT at its
+     *  position.  IN is mapped into memory a window at a time rather than
+     *  read, and the results are written from a direct buffer, so the
+     *  bytes are not copied onto the heap. The positions of both channels
+     *  are advanced. Returns the number of bytes converted. */
+    long convert(FileChannel in, FileChannel out) throws IOException {
+        checkBytes();
+        long start = in.position();
+        long length = Math.max(in.size() - start, 0);
+        ByteBuffer converted =
+            ByteBuffer.allocateDirect((int) Math.min(length, BYTE_WINDOW));
+        for (long done = 0; done < length; ) {
+            long window = Math.min(BYTE_WINDOW, length - done);
+            MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY,
+                start + done, window);
+            converted.clear();
+            convert(source, converted);
+            converted.flip();
+            while (converted.hasRemaining()) {
+                out.write(converted);
+            }
+            done += window;
+        }
+        in.position(start + length);
+        return length;
+    }
+
+    /** Check that my alphabet has a symbol for every byte value. */
+    private void checkBytes() {
+        if (_alphabet.size() != Alphabet.BYTE_VALUES) {
+            throw error("byte conversion needs an alphabet of %d symbols",
+                Alphabet.BYTE_VALUES);
         }
-        return result;
     }
 
+    /** Assigns small ids to plugboards, equal plugboards getting the same
+     *  id. Ids are only ever added, so they can be read without locking;
+     *  a plugboard keeps its id for as long as the machines sharing the
+     *  table live, so ids are given only to the plugboards of states
+     *  saved with saveState or packState. */
+    private static class Plugboards {
+
+        /** Return the id of PLUGBOARD, giving it one if necessary. The id of
+         *  no plugboard (null) is 0. */
+        int id(Permutation plugboard) {
+            if (plugboard == null) {
+                return 0;
+            }
+            Integer known = _ids.get(plugboard);
+            if (known != null) {
+                return known;
+            }
+            synchronized (this) {
+                Integer id = _ids.get(plugboard);
+                if (id == null) {
+                    id = _byId.length;
+                    Permutation[] grown = Arrays.copyOf(_byId, id + 1);
+                    grown[id] = plugboard;
+                    _byId = grown;
+                    _ids.put(plugboard, id);
+                }
+                return id;
+            }
+        }
+
+        /** Return the plugboard whose id is ID. */
+        Permutation get(int id) {
+            Permutation[] byId = _byId;
+            if (id < 0 || id >= byId.length) {
+                throw error("bad plugboard id in state: %d", id);
+            }
+            return byId[id];
+        }
+
+        /** Ids of the plugboards seen so far. */
+        private final Map<Permutation, Integer> _ids =
+            new ConcurrentHashMap<>();
+
+        /** Plugboards seen so far, indexed by id; element 0 is null. */
+        private volatile Permutation[] _byId = new Permutation[1];
+    }
+
+    /** Inputs shorter than this many characters per segment are not worth
+     *  converting in parallel. */
+    private static final int MIN_SEGMENT = 1 << 14;
+
+    /** Number of segments per worker thread, to even out the load. */
+    private static final int SEGMENTS_PER_THREAD = 4;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -184,6 +867,16 @@ class Machine {
      */
     private final int _numRotors;
 
+    /**
+     * Mask taking a byte to its unsigned value.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * Number of bytes of a file mapped and converted at a time.
+     */
+    private static final int BYTE_WINDOW = 1 << 22;
+
     /**
      * The number of pawls.
      */
@@ -195,12 +888,70 @@ class Machine {
     private final Collection<Rotor> _allRotors;
 
     /**
-     * Rotors inserted into this machine.
+     * All rotors available, in order; a rotor's id is its index here.
+     */
+    private final List<Rotor> _library;
+
+    /**
+     * The id of each rotor in _library, by name.
+     */
+    private final Map<String, Integer> _ids;
+
+    /**
+     * Scratch set of the ids inserted so far by insertRotors.
+     */
+    private final BitSet _selected;
+
+    /**
+     * Ids of the plugboards in states saved by me or my copies.
+     */
+    private final Plugboards _plugboards;
+
+    /**
+     * Rotors inserted into this machine, which may be shared with other
+     * machines.
      */
     private final List<Rotor> _activeRotors;
 
+    /**
+     * Setting of the rotor in each slot; that of the reflector is 0.
+     */
+    private final int[] _settings;
+
+    /**
+     * Ids of the rotors inserted into this machine.
+     */
+    private final int[] _activeIds;
+
+    /**
+     * Scratch space for restoreState(long).
+     */
+    private final int[] _unpacked;
+
     /**
      * The plugboard of this machine.
      */
     private Permutation _plugboard;
+
+    /**
+     * The id of _plugboard in saved states, or -1 if not yet known.
+     */
+    private int _plugboardId = -1;
+
+    /**
+     * Settings of the active rotors as of the last setRotors, which
+     * seek(long) counts from.
+     */
+    private final int[] _initialSettings;
+
+    /**
+     * Setting lines applied to me, or null if none has been yet.
+     */
+    private SetupCache _setups;
+
+    /**
+     * True iff advance(long) may skip ahead rather than step one
+     * character at a time.
+     */
+    private boolean _fastForward;
 }
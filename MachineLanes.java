@@ -0,0 +1,268 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.error;
+
+/** Many machines with the same rotors, each with its own settings and
+ *  plugboard, converting in lockstep.  The machines (lanes) are kept as
+ *  a structure of arrays: the settings of each rotor slot are an int
+ *  array indexed by lane, and the wiring of each slot a table indexed by
+ *  setting and contact, shared by all lanes.  Each step of a conversion
+ *  (stepping one slot, or passing through one rotor) is a simple loop
+ *  over all lanes, with no branches or calls, which the JIT compiler
+ *  unrolls; passes through tabled wiring are left to a LaneKernel, which
+ *  may use the Vector API.  Each lane converts exactly as
+ *  Machine.convert(int) would.
+ *
+ *  As in Rotor, the wiring of each slot is tabled for every setting only
+ *  for alphabets of up to Alphabet.BYTE_VALUES characters; for larger
+ *  ones, only the wiring at setting 0 is kept, and each lane shifts its
+ *  contacts by its setting on the way in and out.
+ *  @author Jianing Yu
+ */
+final class MachineLanes {
+
+    /** LANES machines with the rotors, settings and plugboard of
+     *  TEMPLATE, which must have had its rotors inserted. */
+    MachineLanes(Machine template, int lanes) {
+        if (lanes < 1) {
+            throw error("need at least one lane");
+        }
+        int numRotors = template.numRotors();
+        _lanes = lanes;
+        _alphabet = template.alphabet();
+        _size = _alphabet.size();
+        _numRotors = numRotors;
+        _tabled = _size <= Alphabet.BYTE_VALUES;
+
+        Rotor[] rotors = new Rotor[numRotors];
+        _rotates = new boolean[numRotors];
+        _forward = new int[numRotors][];
+        _backward = new int[numRotors][];
+        _notch = new int[numRotors][];
+        _settings = new int[numRotors][lanes];
+        for (int j = 0; j < numRotors; j++) {
+            rotors[j] = template.rotor(j);
+            _rotates[j] = rotors[j].rotates();
+            if (j > 0) {
+                _forward[j] = wiring(rotors[j], true);
+                _backward[j] = wiring(rotors[j], false);
+            }
+            _notch[j] = new int[_size];
+            for (int s = 0; s < _size; s++) {
+                _notch[j][s] = rotors[j].notchesBefore(s + 1)
+                    > rotors[j].notchesBefore(s) ? 1 : 0;
+            }
+            Arrays.fill(_settings[j], template.setting(j));
+        }
+        _reflector = new int[_size];
+        for (int p = 0; p < _size; p++) {
+            _reflector[p] = rotors[0].convertForward(p, 0);
+        }
+
+        _plugIn = new int[lanes * _size];
+        _plugOut = new int[lanes * _size];
+        for (int lane = 0; lane < lanes; lane++) {
+            setPlugboard(lane, template.plugboard());
+        }
+        _step = new int[lanes];
+    }
+
+    /** Return the forward wiring of ROTOR iff FORWARD, else its backward
+     *  wiring, laid out as in _forward. */
+    private int[] wiring(Rotor rotor, boolean forward) {
+        int settings = _tabled ? _size : 1;
+        int[] result = new int[settings * _size];
+        for (int s = 0; s < settings; s++) {
+            for (int p = 0; p < _size; p++) {
+                result[s * _size + p] = forward ? rotor.convertForward(p, s)
+                    : rotor.convertBackward(p, s);
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Set the rotors of LANE according to SETTING, as
+     *  Machine.setRotors would. */
+    void setRotors(int lane, String setting) {
+        if (setting.length() != _numRotors - 1) {
+            throw error("Wrong number of settings");
+        }
+        for (int j = 1; j < _numRotors; j++) {
+            _settings[j][lane] = _alphabet.toInt(setting.charAt(j - 1));
+        }
+    }
+
+    /** Set the rotor in slot J of LANE to SETTING. */
+    void setRotor(int lane, int j, int setting) {
+        if (j < 1 || j >= _numRotors || setting < 0 || setting >= _size) {
+            throw error("bad slot or setting: %d, %d", j, setting);
+        }
+        _settings[j][lane] = setting;
+    }
+
+    /** Return the settings of the rotors of LANE, as
+     *  Machine.getSettings would. */
+    String getSettings(int lane) {
+        char[] result = new char[_numRotors - 1];
+        for (int j = 1; j < _numRotors; j++) {
+            result[j - 1] = _alphabet.toChar(_settings[j][lane]);
+        }
+        return new String(result);
+    }
+
+    /** Set the plugboard of LANE to PLUGBOARD (none if null). */
+    void setPlugboard(int lane, Permutation plugboard) {
+        int base = lane * _size;
+        for (int c = 0; c < _size; c++) {
+            _plugIn[base + c] = plugboard == null ? c : plugboard.permute(c);
+            _plugOut[base + c] = plugboard == null ? c : plugboard.invert(c);
+        }
+    }
+
+    /** Advance every lane, then store in OUTPUT[L] the conversion of
+     *  INPUT[L] by lane L, for every lane L. */
+    void convert(int[] input, int[] output) {
+        advance();
+        int size = _size;
+        int[] plugIn = _plugIn;
+        for (int lane = 0, base = 0; lane < _lanes; lane++, base += size) {
+            output[lane] = plugIn[base + input[lane]];
+        }
+        scramble(output);
+    }
+
+    /** Advance every lane, then store in OUTPUT[L] the conversion of C by
+     *  lane L, for every lane L. */
+    void convert(int c, int[] output) {
+        advance();
+        int size = _size;
+        int[] plugIn = _plugIn;
+        for (int lane = 0, base = 0; lane < _lanes; lane++, base += size) {
+            output[lane] = plugIn[base + c];
+        }
+        scramble(output);
+    }
+
+    /** Step the rotors of every lane, as Machine.convert does before
+     *  converting.  The notches of each slot are read before it or the
+     *  slot to its right moves, as in Machine.  */
+    private void advance() {
+        int last = _numRotors - 1;
+        int size = _size;
+        for (int j = 1; j <= last; j++) {
+            if (!_rotates[j]) {
+                continue;
+            }
+            int[] settings = _settings[j];
+            int[] step = _step;
+            if (j == last) {
+                Arrays.fill(step, 1);
+            } else {
+                int[] right = _settings[j + 1];
+                int[] rightNotch = _notch[j + 1];
+                for (int lane = 0; lane < _lanes; lane++) {
+                    step[lane] = rightNotch[right[lane]];
+                }
+                if (_rotates[j - 1]) {
+                    int[] notch = _notch[j];
+                    for (int lane = 0; lane < _lanes; lane++) {
+                        step[lane] |= notch[settings[lane]];
+                    }
+                }
+            }
+            for (int lane = 0; lane < _lanes; lane++) {
+                int s = settings[lane] + step[lane];
+                settings[lane] = s == size ? 0 : s;
+            }
+        }
+    }
+
+    /** Replace each element C of CONTACTS, a contact entering the rotors
+     *  of its lane, by the contact leaving the plugboard. */
+    private void scramble(int[] contacts) {
+        int size = _size;
+        for (int j = _numRotors - 1; j > 0; j--) {
+            pass(_forward[j], _settings[j], contacts);
+        }
+        int[] reflector = _reflector;
+        for (int lane = 0; lane < _lanes; lane++) {
+            contacts[lane] = reflector[contacts[lane]];
+        }
+        for (int j = 1; j < _numRotors; j++) {
+            pass(_backward[j], _settings[j], contacts);
+        }
+        int[] plugOut = _plugOut;
+        for (int lane = 0, base = 0; lane < _lanes; lane++, base += size) {
+            contacts[lane] = plugOut[base + contacts[lane]];
+        }
+    }
+
+    /** Replace each element C of CONTACTS by its conversion by WIRING, a
+     *  table of _forward or _backward, at the setting in SETTINGS of its
+     *  lane. */
+    private void pass(int[] wiring, int[] settings, int[] contacts) {
+        int size = _size;
+        if (_tabled) {
+            KERNEL.pass(wiring, settings, contacts, size, _lanes, _step);
+        } else {
+            for (int lane = 0; lane < _lanes; lane++) {
+                int s = settings[lane];
+                int p = contacts[lane] + s;
+                int e = wiring[p >= size ? p - size : p] - s;
+                contacts[lane] = e < 0 ? e + size : e;
+            }
+        }
+    }
+
+    /** Does the passes through tabled wiring. */
+    private static final LaneKernel KERNEL = LaneKernel.create();
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Alphabet of all lanes. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** True iff the wiring of each slot is tabled for every setting. */
+    private final boolean _tabled;
+
+    /** Whether the rotor in each slot rotates. */
+    private final boolean[] _rotates;
+
+    /** Conversion of contact P by the rotor in slot J > 0 at setting S, at
+     *  _forward[J][S * size + P], for S = 0 only unless _tabled. */
+    private final int[][] _forward;
+
+    /** Inverse conversions, as for _forward. */
+    private final int[][] _backward;
+
+    /** 1 if the rotor in slot J is at a notch at setting S, at
+     *  _notch[J][S], else 0. */
+    private final int[][] _notch;
+
+    /** Conversions by the reflector. */
+    private final int[] _reflector;
+
+    /** Setting of the rotor in slot J of lane L, at _settings[J][L]. */
+    private final int[][] _settings;
+
+    /** Plugboard of lane L, forward and inverse, at L * size + C. */
+    private final int[] _plugIn, _plugOut;
+
+    /** Scratch space: 1 for lanes whose rotor is stepping, and space for
+     *  KERNEL. */
+    private final int[] _step;
+}
@@ -0,0 +1,121 @@
+package enigma;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the MachineLanes class.
+ *
+ * @author Jianing Yu
+ */
+public class MachineLanesTest {
+    /**
+     * Test that each lane of a MachineLanes converts as a Machine.
+     */
+    @Test
+    public void testLanes() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        String[] settings = {"AXLE", "AAUQ", "ZEVQ", "MDZZ"};
+        MachineLanes lanes = new MachineLanes(machine, settings.length);
+        Machine[] machines = new Machine[settings.length];
+        for (int i = 0; i < settings.length; i++) {
+            machines[i] = machine.copy();
+            machines[i].setRotors(settings[i]);
+            lanes.setRotors(i, settings[i]);
+        }
+        Permutation plugboard = new Permutation("(YF) (ZH)", UPPER);
+        machines[1].setPlugboard(plugboard);
+        lanes.setPlugboard(1, plugboard);
+
+        int[] input = new int[settings.length];
+        int[] output = new int[settings.length];
+        for (int t = 0; t < 1000; t++) {
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (t * 7 + i * 3) % 26;
+            }
+            lanes.convert(input, output);
+            for (int i = 0; i < input.length; i++) {
+                assertEquals(machines[i].convert(input[i]), output[i]);
+            }
+        }
+        for (int i = 0; i < settings.length; i++) {
+            assertEquals(machines[i].getSettings(), lanes.getSettings(i));
+        }
+    }
+
+    /**
+     * Test that the LaneKernel MachineLanes uses, which is vectorized when
+     * built and run with the Vector API, passes lanes as the scalar one
+     * does, for lane counts that do and do not fill whole vectors.
+     */
+    @Test
+    public void testKernel() {
+        Random random = new Random(20);
+        int size = 26;
+        int[] wiring = new int[size * size];
+        for (int k = 0; k < wiring.length; k++) {
+            wiring[k] = random.nextInt(size);
+        }
+        LaneKernel scalar = new LaneKernel(), kernel = LaneKernel.create();
+        for (int lanes = 1; lanes <= 70; lanes++) {
+            int[] settings = new int[lanes], contacts = new int[lanes];
+            for (int lane = 0; lane < lanes; lane++) {
+                settings[lane] = random.nextInt(size);
+                contacts[lane] = random.nextInt(size);
+            }
+            int[] expected = contacts.clone();
+            scalar.pass(wiring, settings, expected, size, lanes,
+                new int[lanes]);
+            kernel.pass(wiring, settings, contacts, size, lanes,
+                new int[lanes]);
+            assertArrayEquals(expected, contacts);
+        }
+    }
+
+    /**
+     * Test lanes over alphabets too large for tabled wiring, against
+     * separate machines.
+     */
+    @Test
+    public void testWideAlphabet() {
+        for (int size : new int[] {Alphabet.BYTE_VALUES + 2, 50000}) {
+            Random random = new Random(size);
+            Machine machine = randomMachine(wideAlphabet(size), random);
+            int lanes = 5;
+            MachineLanes engine = new MachineLanes(machine, lanes);
+            Machine[] machines = new Machine[lanes];
+            for (int i = 0; i < lanes; i++) {
+                machines[i] = machine.copy();
+                for (int j = 2; j < 5; j++) {
+                    int setting = random.nextInt(size);
+                    machines[i].setRotor(j, setting);
+                    engine.setRotor(i, j, setting);
+                }
+            }
+            Permutation plugboard =
+                randomPermutation(machine.alphabet(), random, true);
+            machines[3].setPlugboard(plugboard);
+            engine.setPlugboard(3, plugboard);
+
+            int[] input = new int[lanes];
+            int[] output = new int[lanes];
+            for (int t = 0; t < 3000; t++) {
+                for (int i = 0; i < lanes; i++) {
+                    input[i] = random.nextInt(size);
+                }
+                engine.convert(input, output);
+                for (int i = 0; i < lanes; i++) {
+                    assertEquals(machines[i].convert(input[i]), output[i]);
+                }
+            }
+            for (int i = 0; i < lanes; i++) {
+                assertEquals(machines[i].getSettings(), engine.getSettings(i));
+            }
+        }
+    }
+}
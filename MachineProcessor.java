@@ -0,0 +1,300 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.error;
+
+/** A Flow.Processor converting a stream of input in the format read by
+ *  Main, received in chunks of any size, into chunks of output as
+ *  produced by Transcriber: the converted characters of each message line
+ *  followed by Transcriber.LINE_END.  Setting lines reset the machine as
+ *  in Main.setUp.
+ *
+ *  Output is batched into chunks of up to a fixed size, and emitted only
+ *  as the subscriber requests it; input is requested one chunk ahead, and
+ *  only as it is consumed.  So a stream holds at most two input chunks
+ *  and one output chunk, whatever the speed of either side.  No thread is
+ *  dedicated to a stream or ever blocked: work is done by whichever
+ *  thread delivers a signal (a chunk, a request, completion), one thread
+ *  at a time, and a signal arriving while another thread is working is
+ *  left for that thread to handle.
+ *
+ *  An error in the input is reported, as in Main, only after the output
+ *  of the lines before it.
+ *  @author Jianing Yu
+ */
+final class MachineProcessor
+    implements Flow.Processor<CharSequence, String> {
+
+    /** Return a publisher of the conversion of the chunks published by
+     *  INPUT, converted by MACHINE, which it alone must use. */
+    static Flow.Publisher<String> convert(
+        Flow.Publisher<? extends CharSequence> input, Machine machine) {
+        MachineProcessor processor = new MachineProcessor(machine);
+        input.subscribe(processor);
+        return processor;
+    }
+
+    /** A processor converting with MACHINE, which it alone must use, and
+     *  emitting chunks of up to CHUNKSIZE characters. */
+    MachineProcessor(Machine machine, int chunkSize) {
+        if (chunkSize < 1) {
+            throw error("chunks must hold at least one character");
+        }
+        _transcriber = new Transcriber(machine);
+        _output = CharBuffer.allocate(chunkSize);
+    }
+
+    /** A processor converting with MACHINE, which it alone must use. */
+    MachineProcessor(Machine machine) {
+        this(machine, DEFAULT_CHUNK_SIZE);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        synchronized (this) {
+            if (_downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException(
+                    "a MachineProcessor has only one subscriber"));
+                return;
+            }
+            _downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    _failure = new IllegalArgumentException(
+                        "non-positive request: " + n);
+                } else {
+                    _demand.accumulateAndGet(n, (a, b) ->
+                        a + b < 0 ? Long.MAX_VALUE : a + b);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                _cancelled = true;
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        if (_cancelled) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(CharSequence chunk) {
+        _inputs.add(chunk);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        _inputFailed = true;
+        _failure = error;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        _inputDone = true;
+        drain();
+    }
+
+    /** Do whatever work the signals received allow, unless another thread
+     *  is doing so, in which case it will do this work too. */
+    private void drain() {
+        if (_work.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (_downstream != null && !_terminated) {
+                step();
+            }
+            missed = _work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** Convert and emit until no progress can be made. */
+    private void step() {
+        Flow.Subscriber<? super String> downstream = _downstream;
+        while (true) {
+            if (_cancelled) {
+                terminate();
+                return;
+            }
+            if (_failure != null) {
+                terminate();
+                downstream.onError(_failure);
+                return;
+            }
+            if (_error != null && _output.position() == 0) {
+                terminate();
+                downstream.onError(_error);
+                return;
+            }
+            if (_current == null && _error == null) {
+                CharSequence next = _inputs.poll();
+                if (next != null) {
+                    _current = CharBuffer.wrap(next);
+                    if (!_inputDone) {
+                        _upstream.request(1);
+                    }
+                }
+            }
+
+            /* Output is emitted once no more can be added to it: when it
+             * is full, when all input so far is converted, or when the
+             * transcriber needs more room than it has left.  While waiting
+             * for input, only its complete lines are emitted, so that an
+             * error later in a line leaves none of it emitted. */
+            boolean stalled = false;
+            try {
+                if (_error != null) {
+                    stalled = true;
+                } else if (_current != null && _output.hasRemaining()) {
+                    int consumed = _current.position();
+                    int produced = _output.position();
+                    _transcriber.transcribe(_current, _output);
+                    stalled = consumed == _current.position()
+                        && produced == _output.position();
+                    if (!_current.hasRemaining()) {
+                        _current = null;
+                    }
+                } else if (_current == null && _inputDone && !_finished
+                           && _inputs.isEmpty() && _output.hasRemaining()) {
+                    _finished = _transcriber.finish(_output);
+                    stalled = !_finished;
+                } else {
+                    stalled = true;
+                }
+            } catch (EnigmaException excp) {
+                _error = excp;
+                _output.position(lastLine(_output));
+                continue;
+            }
+            if (!stalled) {
+                continue;
+            }
+
+            int end = _output.position();
+            if (_current == null && !_inputDone && _error == null) {
+                end = lastLine(_output);
+            }
+            if (end > 0 && _demand.get() > 0) {
+                _output.flip();
+                String chunk = _output.subSequence(0, end).toString();
+                _output.position(end);
+                _output.compact();
+                _demand.decrementAndGet();
+                downstream.onNext(chunk);
+                continue;
+            }
+            if (_finished && _output.position() == 0) {
+                terminate();
+                downstream.onComplete();
+            }
+            return;
+        }
+    }
+
+    /** Return the position in OUT just past its last LINE_END before its
+     *  position, or 0 if it has none. */
+    private static int lastLine(CharBuffer out) {
+        int end = out.position();
+        while (end > 0 && out.get(end - 1) != Transcriber.LINE_END) {
+            end--;
+        }
+        return end;
+    }
+
+    /** Stop all work, cancelling my input unless it has ended, and
+     *  releasing buffered chunks. */
+    private void terminate() {
+        _terminated = true;
+        if (!_inputDone && !_inputFailed && _upstream != null) {
+            _upstream.cancel();
+        }
+        _inputs.clear();
+        _current = null;
+    }
+
+    /** Default maximum number of characters in an output chunk. */
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /** Converts the input. */
+    private final Transcriber _transcriber;
+
+    /** Output waiting to be emitted. */
+    private final CharBuffer _output;
+
+    /** Input chunks received but not yet started. */
+    private final Queue<CharSequence> _inputs = new ConcurrentLinkedQueue<>();
+
+    /** Remainder of the input chunk being converted, or null. */
+    private CharBuffer _current;
+
+    /** Number of output chunks requested but not yet emitted. */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /** Number of signals not yet handled by drain. */
+    private final AtomicInteger _work = new AtomicInteger();
+
+    /** My input's subscription. */
+    private volatile Flow.Subscription _upstream;
+
+    /** My subscriber. */
+    private volatile Flow.Subscriber<? super String> _downstream;
+
+    /** True iff my input has completed. */
+    private volatile boolean _inputDone;
+
+    /** True iff my input has failed. */
+    private volatile boolean _inputFailed;
+
+    /** An error to report to my subscriber, or null. */
+    private volatile Throwable _failure;
+
+    /** An error in my input, reported once the output of the lines
+     *  before it is emitted, or null. */
+    private EnigmaException _error;
+
+    /** True iff my subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** True iff the transcriber has finished the last line. */
+    private boolean _finished;
+
+    /** True iff I have sent my subscriber a final signal, or it has
+     *  cancelled. */
+    private boolean _terminated;
+}
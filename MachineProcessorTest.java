@@ -0,0 +1,123 @@
+package enigma;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the MachineProcessor class.
+ *
+ * @author Jianing Yu
+ */
+public class MachineProcessorTest {
+    /**
+     * Test converting a stream of chunks with a MachineProcessor, one
+     * small output chunk at a time.
+     */
+    @Test
+    public void testProcessor() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        String settings = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Main.setUp(machine, settings);
+        String expected = machine.convert("FROMHISSHOULDER") + "\n"
+                + machine.convert("HIAWATHA") + "\n";
+
+        MachineProcessor processor =
+                new MachineProcessor(machine.copy(), 4);
+        StringBuilder output = new StringBuilder();
+        boolean[] done = new boolean[1];
+        processor.subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                _subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(String chunk) {
+                assertTrue(chunk.length() <= 4);
+                output.append(chunk);
+                _subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                fail(error.toString());
+            }
+
+            @Override
+            public void onComplete() {
+                done[0] = true;
+            }
+
+            private Flow.Subscription _subscription;
+        });
+
+        try (SubmissionPublisher<CharSequence> input =
+                new SubmissionPublisher<>(Runnable::run, 16)) {
+            input.subscribe(processor);
+            input.submit(settings.substring(0, 10));
+            input.submit(settings.substring(10) + "\nFROM HIS SHO");
+            input.submit("ULDER\r\nHIAWA");
+            input.submit("THA");
+        }
+        assertTrue(done[0]);
+        assertEquals(expected, output.toString());
+    }
+
+    /**
+     * Test that a MachineProcessor failing on a line emits the output of
+     * the lines before it, but none of that line, before the error, even
+     * when its input arrives in pieces.
+     */
+    @Test
+    public void testProcessorError() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        String settings = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Main.setUp(machine, settings);
+        String expected = machine.convert("FROMHISSHOULDER") + "\n"
+                + machine.convert("HIAWATHA") + "\n";
+
+        MachineProcessor processor =
+                new MachineProcessor(machine.copy(), 8);
+        StringBuilder output = new StringBuilder();
+        Throwable[] failure = new Throwable[1];
+        processor.subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String chunk) {
+                output.append(chunk);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                failure[0] = error;
+            }
+
+            @Override
+            public void onComplete() {
+                fail("no error reported");
+            }
+        });
+
+        try (SubmissionPublisher<CharSequence> input =
+                new SubmissionPublisher<>(Runnable::run, 16)) {
+            input.subscribe(processor);
+            String text = settings + "\nFROM HIS SHOULDER\nHIAWATHA\nNOT"
+                + " a\nMESSAGE\n";
+            for (int i = 0; i < text.length(); i += 4) {
+                input.submit(text.substring(i, Math.min(i + 4,
+                    text.length())));
+            }
+        }
+        assertTrue(failure[0] instanceof EnigmaException);
+        assertEquals(expected, output.toString());
+    }
+}
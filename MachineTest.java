@@ -1,11 +1,16 @@
 package enigma;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 import static enigma.TestUtils.*;
 import static org.junit.Assert.*;
 
 /**
- * The suite of all JUnit tests for the Permutation class.
+ * The suite of all JUnit tests for the Machine class.
  *
  * @author Jianing Yu
  */
@@ -69,4 +74,322 @@ public class MachineTest {
         String result = machine.convert("FROM HIS SHOULDER HIAWATHA");
         assertEquals("QVPQSOKOILPUBKJZPISFXDW", result);
     }
+
+    /**
+     * Test that the bulk conversions agree with convert(String).
+     */
+    @Test
+    public void testBulkConvert() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(
+                new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+
+        char[] in = "FROM HIS SHOULDER HIAWATHA".toCharArray();
+        char[] out = new char[in.length];
+        int produced = machine.convert(in, 0, in.length, out, 0);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                new String(out, 0, produced));
+
+        machine.setRotors("AXLE");
+        CharBuffer input = CharBuffer.wrap("FROM HIS SHOULDER HIAWATHA");
+        CharBuffer output = CharBuffer.allocate(10);
+        assertEquals(10, machine.convert(input, output));
+        assertEquals(12, input.position());
+        output.flip();
+        assertEquals("QVPQSOKOIL", output.toString());
+    }
+
+    /**
+     * Test that seeking reproduces the "Double Stepping" settings.
+     */
+    @Test
+    public void testSeek() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+
+        machine.seek(612);
+        assertEquals("AYKS", machine.getSettings());
+        machine.seek(12);
+        assertEquals("AXLQ", machine.getSettings());
+        machine.advance(1);
+        assertEquals("AXMR", machine.getSettings());
+        machine.advance(597);
+        assertEquals("AXIQ", machine.getSettings());
+
+        machine.seek(1000000);
+        String expected = machine.getSettings();
+        machine.seek(0);
+        for (int i = 0; i < 1000000; i++) {
+            machine.convert(0);
+        }
+        assertEquals(expected, machine.getSettings());
+    }
+
+    /**
+     * Test that parallel conversion matches the serial conversion, also
+     * for a rotor with adjacent notches, which cannot be fast-forwarded.
+     */
+    @Test
+    public void testConvertParallel() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(
+                new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 500000; i++) {
+            msg.append((char) ('A' + (i * 7 + i / 13) % 26));
+            if (i % 11 == 0) {
+                msg.append(' ');
+            }
+        }
+
+        String expected = machine.convert(msg.toString());
+        String settings = machine.getSettings();
+        machine.setRotors("AXLE");
+        assertEquals(expected, machine.convertParallel(msg.toString()));
+        assertEquals(settings, machine.getSettings());
+
+        List<Rotor> rotors = new ArrayList<>(NAVALA_ROTORS);
+        rotors.add(new MovingRotor("IX",
+                new Permutation(NAVALA[0][1], UPPER), "QR"));
+        machine = new Machine(UPPER, 5, 3, rotors);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IX", "I"});
+        machine.setRotors("AXPE");
+        expected = machine.convert(msg.toString());
+        settings = machine.getSettings();
+        machine.setRotors("AXPE");
+        assertEquals(expected, machine.convertParallel(msg.toString()));
+        assertEquals(settings, machine.getSettings());
+    }
+
+    /**
+     * Test saving and restoring the state of a machine and its copies.
+     */
+    @Test
+    public void testState() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(
+                new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+
+        int[] state = machine.state();
+        long packed = machine.packState();
+        String expected = machine.convert("HELLOWORLD");
+
+        Machine copy = machine.copy();
+        copy.insertRotors(new String[]{"B", "Gamma", "I", "II", "V"});
+        copy.setRotors("ZZZZ");
+        copy.setPlugboard(null);
+        copy.restoreState(state);
+        assertEquals("AXLE", copy.getSettings());
+        assertEquals(expected, copy.convert("HELLOWORLD"));
+
+        copy.restoreState(packed);
+        assertEquals(expected, copy.convert("HELLOWORLD"));
+        assertArrayEquals(machine.state(), copy.state());
+
+        machine.restoreState(state);
+        assertEquals(expected, machine.convert("HELLOWORLD"));
+        machine.setPlugboard(
+                new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        assertEquals(state[state.length - 1],
+                machine.state()[state.length - 1]);
+    }
+
+    /**
+     * Test inserting rotors by id.
+     */
+    @Test
+    public void testInsertRotorIds() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        String expected = machine.convert("HELLOWORLD");
+
+        String[] names = {"B", "Beta", "III", "IV", "I"};
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = machine.rotorId(names[i]);
+        }
+        Machine other = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        other.insertRotors(ids);
+        other.setRotors("AXLE");
+        assertEquals(expected, other.convert("HELLOWORLD"));
+
+        ids[4] = ids[3];
+        try {
+            other.insertRotors(ids);
+            fail("duplicate rotors accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        ids[4] = machine.rotorId("I");
+        other.insertRotors(ids);
+        other.setRotors("AXLE");
+        assertEquals(expected, other.convert("HELLOWORLD"));
+    }
+
+    /**
+     * Test that a reflector is accepted only in the first slot, whether
+     * rotors are inserted by name, by id, or by restoring a state.
+     */
+    @Test
+    public void testReflectorSlot() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        int[] state = machine.state();
+        String[][] misplaced = {
+            {"B", "Beta", "III", "C", "I"},
+            {"B", "Beta", "III", "IV", "C"},
+            {"Beta", "B", "III", "IV", "I"},
+        };
+        for (String[] names : misplaced) {
+            try {
+                machine.insertRotors(names);
+                fail("reflector accepted out of place");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            int[] ids = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                ids[i] = machine.rotorId(names[i]);
+            }
+            try {
+                machine.insertRotors(ids);
+                fail("reflector accepted out of place");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            int[] bad = state.clone();
+            System.arraycopy(ids, 0, bad, 0, ids.length);
+            try {
+                machine.restoreState(bad);
+                fail("reflector accepted out of place");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    /**
+     * Test converting bytes with a 256-symbol alphabet.
+     */
+    @Test
+    public void testBytes() {
+        Alphabet bytes = Alphabet.bytes();
+        int[] reflector = new int[256], rotor = new int[256];
+        for (int k = 0; k < 256; k++) {
+            reflector[k] = k ^ 0x5A;
+            rotor[k] = (k * 77 + 13) & 0xFF;
+        }
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation(reflector, bytes)));
+        rotors.add(new MovingRotor("M", new Permutation(rotor, bytes),
+                "\u0000\u00FF"));
+        Machine machine = new Machine(bytes, 2, 1, rotors);
+        machine.insertRotors(new String[]{"R", "M"});
+        Machine decoder = machine.copy();
+        Machine checker = machine.copy();
+
+        byte[] plain = new byte[1000];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = (byte) (i * 31);
+        }
+        ByteBuffer cipher = ByteBuffer.allocateDirect(plain.length);
+        assertEquals(plain.length,
+                machine.convert(ByteBuffer.wrap(plain), cipher));
+        cipher.flip();
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(checker.convert(plain[i] & 0xFF),
+                    cipher.get(i) & 0xFF);
+        }
+        byte[] result = new byte[plain.length];
+        decoder.convert(cipher, ByteBuffer.wrap(result));
+        assertArrayEquals(plain, result);
+    }
+
+    /**
+     * Test advancing machines with a fixed rotor right of rotating ones,
+     * which still step off their own notches.
+     */
+    @Test
+    public void testAdvanceFixedSlot() {
+        String[][] orders = {{"B", "I", "II", "III", "Beta"},
+            {"B", "III", "II", "Beta", "I"}};
+        String[] settings = {"AAVA", "AQEA", "QEVA", "ZEAQ", "AAAA"};
+        for (String[] order : orders) {
+            for (String setting : settings) {
+                for (int n = 0; n < 40; n++) {
+                    Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+                    machine.insertRotors(order);
+                    machine.setRotors(setting);
+                    Machine stepped = machine.copy();
+                    for (int i = 0; i < n; i++) {
+                        stepped.convert(0);
+                    }
+                    machine.advance(n);
+                    assertEquals(stepped.getSettings(),
+                        machine.getSettings());
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that machines built from the same rotors, converting in turn
+     * and on separate threads, do not disturb each other.
+     */
+    @Test
+    public void testSharedRotors() throws InterruptedException {
+        String[] settings = {"* B Beta III IV I AXLE (HQ) (EX)",
+            "* C Gamma I II V QRST (AB)", "* B Beta V III II ZZZZ"};
+        String message = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Machine[] machines = new Machine[settings.length];
+        String[] expected = new String[settings.length];
+        for (int i = 0; i < settings.length; i++) {
+            machines[i] = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+            Main.setUp(machines[i], settings[i]);
+            expected[i] = machines[i].copy().convert(message);
+        }
+        StringBuilder[] results = new StringBuilder[settings.length];
+        for (int i = 0; i < settings.length; i++) {
+            results[i] = new StringBuilder();
+        }
+        for (int k = 0; k < message.length(); k++) {
+            for (int i = 0; i < settings.length; i++) {
+                results[i].append(
+                    machines[i].convert(message.substring(k, k + 1)));
+            }
+        }
+        for (int i = 0; i < settings.length; i++) {
+            assertEquals(expected[i], results[i].toString());
+        }
+
+        String[] threaded = new String[settings.length];
+        Thread[] threads = new Thread[settings.length];
+        for (int i = 0; i < settings.length; i++) {
+            int t = i;
+            threads[i] = new Thread(() -> {
+                Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+                StringBuilder result = new StringBuilder();
+                for (int round = 0; round < 200; round++) {
+                    Main.setUp(machine, settings[t]);
+                    result.setLength(0);
+                    result.append(machine.convert(message));
+                }
+                threaded[t] = result.toString();
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < settings.length; i++) {
+            threads[i].join();
+            assertEquals(expected[i], threaded[i]);
+        }
+    }
 }
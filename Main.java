@@ -1,8 +1,18 @@
 package enigma;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -24,36 +34,129 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  Options starting with "--" may precede the file names:
+     *  --stream reads, converts and writes on separate threads through
+     *  bounded queues of large buffers. --mmap does the same, but maps
+     *  the input file into memory and writes the output file through a
+     *  direct buffer; it requires both file names. --sections[=N]
+     *  converts the sections started by each setting line concurrently on
+     *  N threads (by default, one per processor), writing them in input
+     *  order. --cache reads the configuration through a ConfigCache,
+     *  compiling it into a binary file next to it on first use.
+     *  --index=FILE processes as --stream (or --mmap) does, also writing a
+     *  Checkpoints index of the run to FILE, with a checkpoint every N
+     *  converted characters as given by --interval=N; it requires both
+     *  file names.  With --resume, a run whose index FILE exists resumes
+     *  from the last checkpoint that its input and output files reach,
+     *  rather than starting over (the interval is then that of the
+     *  index).
+     *
+     *  When the system property enigma.metrics is true, a summary of the
+     *  collected Metrics is printed on the standard error at the end. */
     public static void main(String... args) {
         try {
             new Main(args).process();
+            reportMetrics();
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
         }
+        reportMetrics();
         System.exit(1);
     }
 
+    /** Print a summary of the collected metrics, if any, on the standard
+     *  error. */
+    private static void reportMetrics() {
+        if (Metrics.ENABLED) {
+            System.err.println(Metrics.snapshot());
+        }
+    }
+
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
-        if (args.length < 1 || args.length > 3) {
+        this(args, null, null);
+    }
+
+    /** Check ARGS as for Main(ARGS).  If INPUT is non-null, ARGS name only
+     *  the configuration file, and messages are read from INPUT and the
+     *  results printed on OUTPUT rather than on files named in ARGS. */
+    Main(String[] args, InputStream input, PrintStream output) {
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                files.add(arg);
+            } else if (arg.equals("--stream")) {
+                _streaming = true;
+            } else if (arg.equals("--cache")) {
+                _cached = true;
+            } else if (arg.equals("--mmap")) {
+                _mapped = true;
+            } else if (arg.equals("--sections")) {
+                _sectionThreads = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--sections=")) {
+                _sectionThreads = parseCount(arg);
+            } else if (arg.startsWith("--index=")) {
+                _indexName = arg.substring("--index=".length());
+            } else if (arg.startsWith("--interval=")) {
+                _interval = parseCount(arg);
+            } else if (arg.equals("--resume")) {
+                _resuming = true;
+            } else {
+                throw error("Unknown option %s", arg);
+            }
+        }
+        if (files.size() < 1 || files.size() > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
+        if (input != null && files.size() > 1) {
+            throw error("messages come from a stream, not %s", files.get(1));
+        }
 
-        _config = getInput(args[0]);
+        _configName = files.get(0);
+        _config = getInput(_configName);
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
-        } else {
-            _input = new Scanner(System.in);
+        if (_resuming && _indexName == null) {
+            throw error("--resume needs --index");
+        }
+        if (_indexName != null && _sectionThreads > 0) {
+            throw error("--index cannot be used with --sections");
+        }
+        if (_mapped || _indexName != null) {
+            if (files.size() != 3 || input != null) {
+                throw error("%s needs input and output files",
+                    _mapped ? "--mmap" : "--index");
+            }
+            _inputName = files.get(1);
+            _outputName = files.get(2);
+            return;
         }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        if (input == null) {
+            input = files.size() > 1 ? getStream(files.get(1)) : System.in;
+            output = files.size() > 2 ? getOutput(files.get(2)) : System.out;
+        }
+        if (_streaming || _sectionThreads > 0) {
+            _source = input;
         } else {
-            _output = System.out;
+            _input = new Scanner(input);
+        }
+        _output = output;
+    }
+
+    /** Return the positive count given after '=' in option ARG. */
+    private static int parseCount(String arg) {
+        try {
+            int count = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
         }
+        throw error("bad count in %s", arg);
     }
 
     /** Return a Scanner reading from the file named NAME. */
@@ -65,6 +168,15 @@ public final class Main {
         }
     }
 
+    /** Return an InputStream reading from the file named NAME. */
+    private InputStream getStream(String name) {
+        try {
+            return new FileInputStream(name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /** Return a PrintStream writing to the file named NAME. */
     private PrintStream getOutput(String name) {
         try {
@@ -77,7 +189,23 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
+        if (_indexName != null) {
+            processIndexed();
+            return;
+        }
+        if (_mapped) {
+            processMapped();
+            return;
+        }
+        if (_sectionThreads > 0) {
+            processSections();
+            return;
+        }
+        if (_streaming) {
+            processStream();
+            return;
+        }
         Machine machine = readConfig();
 
         String firstLine = _input.nextLine();
@@ -93,53 +221,182 @@ public final class Main {
                 continue;
             }
 
+            long start = Metrics.ENABLED ? System.nanoTime() : 0;
             String converted = machine.convert(line);
             printMessageLine(converted);
+            if (Metrics.ENABLED) {
+                Metrics.lineProcessed(line.length(),
+                    System.nanoTime() - start);
+            }
+        }
+    }
+
+    /** Like process(), but run reading, conversion and writing as stages
+     *  of a StreamPipeline instead of line by line. */
+    private void processStream() {
+        Machine machine = readConfig();
+        Charset charset = Charset.defaultCharset();
+        GroupWriter sink =
+            new GroupWriter(Channels.newChannel(_output), charset);
+        try {
+            new StreamPipeline(new InputStreamReader(_source, charset),
+                new Transcriber(machine), sink).run();
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Like processStream(), but convert the sections of the input
+     *  concurrently with ParallelSections. Each thread converts with its
+     *  own copy of one machine, all sharing its rotors. */
+    private void processSections() {
+        Machine machine = readConfig();
+        Charset charset = Charset.defaultCharset();
+        GroupWriter sink =
+            new GroupWriter(Channels.newChannel(_output), charset);
+        try {
+            new ParallelSections(new InputStreamReader(_source, charset),
+                machine::copy, sink, _sectionThreads).run();
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Like processStream(), but read the input file through a
+     *  MappedSource and write the output file through a direct buffer, so
+     *  that neither is copied onto the heap as a whole. */
+    private void processMapped() {
+        Machine machine = readConfig();
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName));
+             FileChannel out = FileChannel.open(Paths.get(_outputName),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            GroupWriter sink =
+                new GroupWriter(out, charset, MAPPED_BUFFER_SIZE, true);
+            new StreamPipeline(new MappedSource(in, charset),
+                new Transcriber(machine), sink).run();
+        } catch (IOException excp) {
+            throw error("could not process %s: %s", _inputName,
+                excp.getMessage());
+        }
+    }
+
+    /** Like processStream() or, with --mmap, processMapped(), but write a
+     *  Checkpoints index of the run to _indexName, first resuming from
+     *  the one there if --resume was given. */
+    private void processIndexed() {
+        Machine machine = readConfig();
+        Transcriber transcriber = new Transcriber(machine);
+        Charset charset = Charset.defaultCharset();
+        Path indexFile = Paths.get(_indexName);
+        Checkpoints.Writer index = null;
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName));
+             FileChannel out = FileChannel.open(Paths.get(_outputName),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            GroupWriter sink = _mapped
+                ? new GroupWriter(out, charset, MAPPED_BUFFER_SIZE, true)
+                : new GroupWriter(out, charset);
+            long start = 0;
+            Checkpoints previous = _resuming && Files.exists(indexFile)
+                ? Checkpoints.read(indexFile) : null;
+            if (previous != null) {
+                int count = previous.reached(in.size(), out.size());
+                index = previous.append(indexFile, count, charset);
+                if (count > 0) {
+                    Checkpoints.Checkpoint last = previous.get(count - 1);
+                    transcriber.resume(last);
+                    sink.continueLine(last.column());
+                    in.position(last.input());
+                    start = last.output();
+                }
+            } else {
+                index = Checkpoints.create(indexFile, charset, _interval);
+            }
+            out.truncate(start);
+            out.position(start);
+            transcriber.index(index);
+
+            Readable source = _mapped ? new MappedSource(in, charset)
+                : new InputStreamReader(Channels.newInputStream(in), charset);
+            new StreamPipeline(source, transcriber, sink).run();
+        } catch (IOException excp) {
+            throw error("could not process %s: %s", _inputName,
+                excp.getMessage());
+        } finally {
+            if (index != null) {
+                index.close();
+            }
         }
     }
 
     /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
+     *  file _config, through its cache if --cache was given, and close
+     *  _config. */
     private Machine readConfig() {
         try {
-            _alphabet = new Alphabet(_config.next());
-            int numRotors = _config.nextInt();
-            int pawls = _config.nextInt();
+            if (_cached) {
+                return ConfigCache.load(_configName);
+            }
+            return readConfig(_config);
+        } finally {
+            _config.close();
+        }
+    }
+
+    /** Return an Enigma machine configured from the contents of CONFIG. */
+    static Machine readConfig(Scanner config) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        Machine result = parseConfig(config);
+        if (Metrics.ENABLED) {
+            Metrics.configRead(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /** Return an Enigma machine configured from the contents of CONFIG, as
+     *  readConfig does, but without recording the time taken. */
+    static Machine parseConfig(Scanner config) {
+        try {
+            Alphabet alphabet = new Alphabet(config.next());
+            int numRotors = config.nextInt();
+            int pawls = config.nextInt();
             List<Rotor> allRotors = new ArrayList<>();
-            while (_config.hasNext()) {
-                Rotor rotor = readRotor();
+            while (config.hasNext()) {
+                Rotor rotor = readRotor(config, alphabet);
                 allRotors.add(rotor);
             }
 
-            return new Machine(_alphabet, numRotors, pawls, allRotors);
+            return new Machine(alphabet, numRotors, pawls, allRotors);
         } catch (NoSuchElementException excp) {
             throw error("configuration file has wrong format.");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Return a rotor over ALPHABET, reading its description from
+     *  CONFIG. */
+    private static Rotor readRotor(Scanner config, Alphabet alphabet) {
         try {
-            String name = _config.next();
+            String name = config.next();
 
-            String typeAndNotches = _config.next();
+            String typeAndNotches = config.next();
             char type = typeAndNotches.charAt(0);
             String notches = typeAndNotches.substring(1);
 
             String permBuilder = "";
-            while (_config.hasNext("\\(.+\\)")) {
-                String next = _config.next("\\(.+\\)");
+            while (config.hasNext("\\(.+\\)")) {
+                String next = config.next("\\(.+\\)");
                 permBuilder += next;
             }
             String perms = permBuilder;
 
             if (type == 'M') {
                 return new MovingRotor(name,
-                        new Permutation(perms, _alphabet), notches);
+                        new Permutation(perms, alphabet), notches);
             } else if (type == 'N') {
-                return new FixedRotor(name, new Permutation(perms, _alphabet));
+                return new FixedRotor(name, new Permutation(perms, alphabet));
             } else if (type == 'R') {
-                return new Reflector(name, new Permutation(perms, _alphabet));
+                return new Reflector(name, new Permutation(perms, alphabet));
             }
             throw error("Unknown rotor type %s", type);
         } catch (NoSuchElementException excp) {
@@ -149,18 +406,26 @@ public final class Main {
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        String[] setting = settings.split("\\s+");
-        int numRotors = M.numRotors();
+    static void setUp(Machine M, String settings) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        SetupCache cache = M.setups();
+        if (!cache.apply(M, settings)) {
+            String[] setting = settings.split("\\s+");
+            int numRotors = M.numRotors();
 
-        M.insertRotors(Arrays.copyOfRange(setting, 1, numRotors + 1));
-        M.setRotors(setting[numRotors + 1]);
+            M.insertRotors(Arrays.copyOfRange(setting, 1, numRotors + 1));
+            M.setRotors(setting[numRotors + 1]);
 
-        int index = settings.indexOf("(");
-        if (index != -1) {
-            String perm = settings.substring(index);
-            Permutation plug = new Permutation(perm, _alphabet);
-            M.setPlugboard(plug);
+            int index = settings.indexOf("(");
+            if (index != -1) {
+                String perm = settings.substring(index);
+                Permutation plug = new Permutation(perm, M.alphabet());
+                M.setPlugboard(plug);
+            }
+            cache.record(M, settings, index != -1);
+        }
+        if (Metrics.ENABLED) {
+            Metrics.setUp(settings, System.nanoTime() - start);
         }
     }
 
@@ -177,12 +442,48 @@ public final class Main {
         _output.println();
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
-
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Source of input messages in streaming mode. */
+    private InputStream _source;
+
+    /** True iff processing with a StreamPipeline (--stream). */
+    private boolean _streaming;
+
+    /** True iff the configuration is read through its cache (--cache). */
+    private boolean _cached;
+
+    /** Number of threads converting sections (--sections), or 0. */
+    private int _sectionThreads;
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** True iff processing memory-mapped files (--mmap). */
+    private boolean _mapped;
+
+    /** Name of the input file in --mmap or --index mode. */
+    private String _inputName;
+
+    /** Name of the output file in --mmap or --index mode. */
+    private String _outputName;
+
+    /** Name of the index file (--index), or null. */
+    private String _indexName;
+
+    /** Number of converted characters between checkpoints (--interval). */
+    private long _interval = DEFAULT_INTERVAL;
+
+    /** True iff resuming from the index file (--resume). */
+    private boolean _resuming;
+
+    /** Default number of converted characters between checkpoints. */
+    private static final long DEFAULT_INTERVAL = 1 << 20;
+
+    /** Size in bytes of the direct output buffer in --mmap mode. */
+    private static final int MAPPED_BUFFER_SIZE = 1 << 20;
+
     /** Source of machine configuration. */
     private Scanner _config;
 
@@ -0,0 +1,105 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/** A source of characters decoded directly from a memory-mapped file.
+ *  The file is mapped one window at a time, so files of any size can be
+ *  read without copying their bytes onto the heap.
+ *  @author Jianing Yu
+ */
+class MappedSource implements Readable {
+
+    /** A source decoding the contents of CHANNEL in CHARSET from its
+     *  current position on, mapping WINDOW bytes, or MIN_WINDOW if that
+     *  is more, at a time. */
+    MappedSource(FileChannel channel, Charset charset, long window)
+        throws IOException {
+        _channel = channel;
+        _size = channel.size();
+        _windowSize = Math.max(window, MIN_WINDOW);
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(channel.position());
+    }
+
+    /** A source decoding the contents of CHANNEL in CHARSET from its
+     *  current position on. */
+    MappedSource(FileChannel channel, Charset charset) throws IOException {
+        this(channel, charset, DEFAULT_WINDOW);
+    }
+
+    @Override
+    public int read(CharBuffer cb) throws IOException {
+        if (_done) {
+            return -1;
+        }
+        int start = cb.position();
+        while (cb.hasRemaining()) {
+            boolean last = _start + _window.limit() == _size;
+            if (!_flushing) {
+                CoderResult result = _decoder.decode(_window, cb, last);
+                if (result.isOverflow()) {
+                    break;
+                }
+                if (!last) {
+                    map(_start + _window.position());
+                    continue;
+                }
+                _flushing = true;
+            }
+            if (_decoder.flush(cb).isUnderflow()) {
+                _done = true;
+            }
+            break;
+        }
+        int count = cb.position() - start;
+        return count == 0 && _done ? -1 : count;
+    }
+
+    /** Map the window of my file starting at byte START. */
+    private void map(long start) throws IOException {
+        _start = start;
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(_windowSize, _size - start));
+    }
+
+    /** Fewest bytes mapped at a time.  The decoder leaves a character
+     *  cut off at the end of a window to be decoded from the start of the
+     *  next, so a window must be able to hold any whole character. */
+    private static final long MIN_WINDOW = 16;
+
+    /** Default number of bytes mapped at a time. */
+    private static final long DEFAULT_WINDOW = 1L << 28;
+
+    /** The file I read. */
+    private final FileChannel _channel;
+
+    /** Size of _channel in bytes. */
+    private final long _size;
+
+    /** Number of bytes mapped at a time. */
+    private final long _windowSize;
+
+    /** Decoder from file bytes to characters. */
+    private final CharsetDecoder _decoder;
+
+    /** Position in the file of the first byte of _window. */
+    private long _start;
+
+    /** The currently mapped part of the file. */
+    private MappedByteBuffer _window;
+
+    /** True iff the whole file has been passed to the decoder. */
+    private boolean _flushing;
+
+    /** True iff the whole file has been decoded. */
+    private boolean _done;
+}
@@ -0,0 +1,63 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the MappedSource class.
+ *
+ * @author Jianing Yu
+ */
+public class MappedSourceTest {
+    /**
+     * Test reading files through MappedSources with windows of several
+     * sizes, which end inside multi-byte characters and line terminators,
+     * directly, and through a StreamPipeline against Main converting line
+     * by line.
+     */
+    @Test
+    public void testMappedSource() throws IOException {
+        Path file = Files.createTempFile("enigma", ".in");
+        String text = "A\u00c4\u20ac\ud834\udd1e\r\n".repeat(12);
+        Files.writeString(file, text, UTF_8);
+        for (long window : new long[] {1, 16, 17, 18, 19}) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                channel.position(12);
+                MappedSource source = new MappedSource(channel, UTF_8, window);
+                StringBuilder read = new StringBuilder();
+                CharBuffer buffer = CharBuffer.allocate(3);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    read.append(buffer);
+                    buffer.clear();
+                }
+                assertEquals(text.substring(7), read.toString());
+            }
+        }
+
+        Machine machine = Main.readConfig(new Scanner(NAVALA_CONFIG));
+        for (String input : new String[] {SECTIONS, SECTIONS + BAD_LINE}) {
+            String expected = lineMode(input);
+            Files.writeString(file, input, UTF_8);
+            for (long window : new long[] {1, 17, 19}) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    MappedSource source =
+                        new MappedSource(channel, UTF_8, window);
+                    assertEquals(expected, written(sink -> new StreamPipeline(
+                        source, new Transcriber(machine.copy()), sink,
+                        16).run()));
+                }
+            }
+        }
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,366 @@
+package enigma;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Counters and latency histograms of the simulator, also reported as JDK
+ *  Flight Recorder events.  Metrics are collected only when the system
+ *  property enigma.metrics is true; otherwise ENABLED is a constant false,
+ *  and the JIT compiler removes the code guarded by it, so that
+ *  instrumented paths cost nothing.
+ *  @author Jianing Yu
+ */
+final class Metrics {
+
+    /** True iff metrics are collected. Code calling the recording methods
+     *  below should be guarded by this, so that it can be compiled away. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** Not instantiable. */
+    private Metrics() {
+    }
+
+    /** Record that one character was converted. */
+    static void converted() {
+        CHARACTERS.increment();
+    }
+
+    /** Record that the rotor in slot POSITION advanced, which was a double
+     *  step (a rotor moving because of its own notch) iff DOUBLESTEP. */
+    static void advanced(int position, boolean doubleStep) {
+        ADVANCES[Math.min(position, ADVANCES.length - 1)].increment();
+        if (doubleStep) {
+            DOUBLE_STEPS.increment();
+        }
+    }
+
+    /** Record that a configuration was read in NANOS nanoseconds. */
+    static void configRead(long nanos) {
+        READ_CONFIG.add(nanos);
+        ReadConfigEvent event = new ReadConfigEvent();
+        if (event.shouldCommit()) {
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /** Record that setting line SETTINGS was applied in NANOS
+     *  nanoseconds, ending now. */
+    static void setUp(String settings, long nanos) {
+        SET_UP.add(nanos);
+        SetUpEvent event = new SetUpEvent();
+        if (event.shouldCommit()) {
+            event.settings = settings;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /** Record that a setting line was found in a machine's cache iff
+     *  HIT. */
+    static void setUpCached(boolean hit) {
+        (hit ? SET_UP_HITS : SET_UP_MISSES).increment();
+    }
+
+    /** Record that a setting line was evicted from a machine's cache. */
+    static void setUpEvicted() {
+        SET_UP_EVICTIONS.increment();
+    }
+
+    /** Record that a message line of LENGTH characters, not counting its
+     *  terminator, was converted in NANOS nanoseconds: by Main.process,
+     *  including writing it, or by a Transcriber, since the end of the
+     *  line before it. */
+    static void lineProcessed(int length, long nanos) {
+        LINE.add(nanos);
+        LineEvent event = new LineEvent();
+        if (event.shouldCommit()) {
+            event.length = length;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /** Return the current values of all metrics. */
+    static Snapshot snapshot() {
+        long[] advances = new long[ADVANCES.length];
+        for (int i = 0; i < advances.length; i++) {
+            advances[i] = ADVANCES[i].sum();
+        }
+        long[] cache = {SET_UP_HITS.sum(), SET_UP_MISSES.sum(),
+                        SET_UP_EVICTIONS.sum()};
+        Snapshot result = new Snapshot(CHARACTERS.sum(), advances,
+            DOUBLE_STEPS.sum(), cache, READ_CONFIG.counts(), SET_UP.counts(),
+            LINE.counts());
+        SnapshotEvent event = new SnapshotEvent();
+        if (event.shouldCommit()) {
+            event.characters = result.characters();
+            event.doubleSteps = result.doubleSteps();
+            event.commit();
+        }
+        return result;
+    }
+
+    /** Set all metrics to zero. */
+    static void reset() {
+        CHARACTERS.reset();
+        for (LongAdder advances : ADVANCES) {
+            advances.reset();
+        }
+        DOUBLE_STEPS.reset();
+        SET_UP_HITS.reset();
+        SET_UP_MISSES.reset();
+        SET_UP_EVICTIONS.reset();
+        READ_CONFIG.reset();
+        SET_UP.reset();
+        LINE.reset();
+    }
+
+    /** The values of all metrics at one time. Histograms are arrays whose
+     *  element K is the number of durations of at least 2**(K-1) and less
+     *  than 2**K nanoseconds (element 0 counting durations of 0). */
+    static final class Snapshot {
+
+        /** A snapshot with CHARACTERS characters converted, ADVANCES[i]
+         *  advances of the rotor in slot i, DOUBLESTEPS double steps,
+         *  setting line cache hits, misses and evictions CACHE, and
+         *  histograms READCONFIG, SETUP and LINE. */
+        private Snapshot(long characters, long[] advances, long doubleSteps,
+                         long[] cache, long[] readConfig, long[] setUp,
+                         long[] line) {
+            _characters = characters;
+            _advances = advances;
+            _doubleSteps = doubleSteps;
+            _cache = cache;
+            _readConfig = readConfig;
+            _setUp = setUp;
+            _line = line;
+        }
+
+        /** Return the number of characters converted. */
+        long characters() {
+            return _characters;
+        }
+
+        /** Return the number of advances of the rotor in slot POSITION. The
+         *  last slot counts all rotors from it on. */
+        long advances(int position) {
+            return _advances[Math.min(position, _advances.length - 1)];
+        }
+
+        /** Return the number of double steps. */
+        long doubleSteps() {
+            return _doubleSteps;
+        }
+
+        /** Return the number of setting lines found in machines' caches. */
+        long setUpHits() {
+            return _cache[0];
+        }
+
+        /** Return the number of setting lines not found in machines'
+         *  caches. */
+        long setUpMisses() {
+            return _cache[1];
+        }
+
+        /** Return the number of setting lines evicted from machines'
+         *  caches. */
+        long setUpEvictions() {
+            return _cache[2];
+        }
+
+        /** Return the histogram of configuration reading times. */
+        long[] readConfigNanos() {
+            return _readConfig.clone();
+        }
+
+        /** Return the histogram of setting line times. */
+        long[] setUpNanos() {
+            return _setUp.clone();
+        }
+
+        /** Return the histogram of message line times. */
+        long[] lineNanos() {
+            return _line.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append("characters converted: ").append(_characters);
+            result.append("\nrotor advances:");
+            for (int i = 1; i < _advances.length; i++) {
+                if (_advances[i] != 0) {
+                    result.append(String.format(" [%d]=%d", i, _advances[i]));
+                }
+            }
+            result.append("\ndouble steps: ").append(_doubleSteps);
+            result.append(String.format(
+                "\nsetUp cache: %d hits, %d misses, %d evictions",
+                _cache[0], _cache[1], _cache[2]));
+            appendHistogram(result, "readConfig", _readConfig);
+            appendHistogram(result, "setUp", _setUp);
+            appendHistogram(result, "line", _line);
+            return result.toString();
+        }
+
+        /** Append histogram COUNTS, named NAME, to RESULT. */
+        private static void appendHistogram(StringBuilder result,
+                                            String name, long[] counts) {
+            result.append('\n').append(name).append(" ns:");
+            for (int k = 0; k < counts.length; k++) {
+                if (counts[k] != 0) {
+                    result.append(String.format(" <%d:%d", 1L << k,
+                        counts[k]));
+                }
+            }
+        }
+
+        /** Number of characters converted. */
+        private final long _characters;
+
+        /** Number of advances of the rotor in each slot. */
+        private final long[] _advances;
+
+        /** Number of double steps. */
+        private final long _doubleSteps;
+
+        /** Setting line cache hits, misses and evictions. */
+        private final long[] _cache;
+
+        /** Histograms of configuration, setting line and message line
+         *  times. */
+        private final long[] _readConfig, _setUp, _line;
+    }
+
+    /** A concurrent histogram of durations in nanoseconds, with one
+     *  bucket per power of two. */
+    static final class Histogram {
+
+        /** Record one duration of NANOS. */
+        void add(long nanos) {
+            int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+            _buckets[Math.min(bucket, BUCKETS - 1)].increment();
+        }
+
+        /** Return the count in each bucket. */
+        long[] counts() {
+            long[] result = new long[BUCKETS];
+            for (int k = 0; k < BUCKETS; k++) {
+                result[k] = _buckets[k].sum();
+            }
+            return result;
+        }
+
+        /** Set all counts to zero. */
+        void reset() {
+            for (LongAdder bucket : _buckets) {
+                bucket.reset();
+            }
+        }
+
+        /** The counts of each bucket. */
+        private final LongAdder[] _buckets = newAdders(BUCKETS);
+    }
+
+    /** Flight Recorder event for reading a configuration. */
+    @Name("enigma.ReadConfig")
+    @Label("Enigma Configuration")
+    @Category("Enigma")
+    static final class ReadConfigEvent extends Event {
+        /** Time taken to read it. */
+        @Label("Nanoseconds")
+        long nanos;
+    }
+
+    /** Flight Recorder event for one setting line. */
+    @Name("enigma.SetUp")
+    @Label("Enigma Setting Line")
+    @Category("Enigma")
+    static final class SetUpEvent extends Event {
+        /** The setting line. */
+        @Label("Settings")
+        String settings;
+
+        /** Time taken to apply it. */
+        @Label("Nanoseconds")
+        long nanos;
+    }
+
+    /** Flight Recorder event for one message line. */
+    @Name("enigma.Line")
+    @Label("Enigma Message Line")
+    @Category("Enigma")
+    static final class LineEvent extends Event {
+        /** Number of characters in the line. */
+        @Label("Length")
+        int length;
+
+        /** Time taken to convert it. */
+        @Label("Nanoseconds")
+        long nanos;
+    }
+
+    /** Flight Recorder event for a snapshot of the counters. */
+    @Name("enigma.Snapshot")
+    @Label("Enigma Metrics Snapshot")
+    @Description("Totals since the metrics were last reset")
+    @Category("Enigma")
+    static final class SnapshotEvent extends Event {
+        /** Number of characters converted. */
+        @Label("Characters")
+        long characters;
+
+        /** Number of double steps. */
+        @Label("Double Steps")
+        long doubleSteps;
+    }
+
+    /** Return an array of N new LongAdders. */
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] result = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    /** Number of histogram buckets. */
+    private static final int BUCKETS = 48;
+
+    /** Number of rotor slots whose advances are counted separately. */
+    private static final int SLOTS = 16;
+
+    /** Number of characters converted. */
+    private static final LongAdder CHARACTERS = new LongAdder();
+
+    /** Number of advances of the rotor in each slot. */
+    private static final LongAdder[] ADVANCES = newAdders(SLOTS);
+
+    /** Number of double steps. */
+    private static final LongAdder DOUBLE_STEPS = new LongAdder();
+
+    /** Number of setting lines found in machines' caches. */
+    private static final LongAdder SET_UP_HITS = new LongAdder();
+
+    /** Number of setting lines not found in machines' caches. */
+    private static final LongAdder SET_UP_MISSES = new LongAdder();
+
+    /** Number of setting lines evicted from machines' caches. */
+    private static final LongAdder SET_UP_EVICTIONS = new LongAdder();
+
+    /** Times to read configurations. */
+    private static final Histogram READ_CONFIG = new Histogram();
+
+    /** Times to apply setting lines. */
+    private static final Histogram SET_UP = new Histogram();
+
+    /** Times to convert message lines. */
+    private static final Histogram LINE = new Histogram();
+}
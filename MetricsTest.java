@@ -0,0 +1,135 @@
+package enigma;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Metrics class.
+ *
+ * @author Jianing Yu
+ */
+public class MetricsTest {
+    /**
+     * Test that a snapshot holds what was recorded, that slots beyond
+     * the last counted one share its count, and that a reset clears all
+     * metrics without changing earlier snapshots.
+     */
+    @Test
+    public void testSnapshot() {
+        Metrics.reset();
+        Metrics.converted();
+        Metrics.converted();
+        Metrics.advanced(2, false);
+        Metrics.advanced(2, true);
+        Metrics.advanced(40, false);
+        Metrics.advanced(41, false);
+        Metrics.setUpCached(true);
+        Metrics.setUpCached(false);
+        Metrics.setUpCached(false);
+        Metrics.setUpEvicted();
+        Metrics.configRead(0);
+        Metrics.setUp("* B Beta III IV I AXLE", 3);
+        Metrics.lineProcessed(5, 1 << 20);
+
+        Metrics.Snapshot snapshot = Metrics.snapshot();
+        assertEquals(2, snapshot.characters());
+        assertEquals(0, snapshot.advances(1));
+        assertEquals(2, snapshot.advances(2));
+        assertEquals(2, snapshot.advances(40));
+        assertEquals(2, snapshot.advances(1000));
+        assertEquals(1, snapshot.doubleSteps());
+        assertEquals(1, snapshot.setUpHits());
+        assertEquals(2, snapshot.setUpMisses());
+        assertEquals(1, snapshot.setUpEvictions());
+        assertEquals(1, snapshot.readConfigNanos()[0]);
+        assertEquals(1, snapshot.setUpNanos()[2]);
+        assertEquals(1, snapshot.lineNanos()[21]);
+        assertEquals(1, total(snapshot.lineNanos()));
+        snapshot.lineNanos()[21] = 0;
+        assertEquals(1, snapshot.lineNanos()[21]);
+
+        Metrics.reset();
+        assertEquals(2, snapshot.characters());
+        Metrics.Snapshot cleared = Metrics.snapshot();
+        assertEquals(0, cleared.characters());
+        assertEquals(0, cleared.advances(2));
+        assertEquals(0, cleared.advances(40));
+        assertEquals(0, cleared.doubleSteps());
+        assertEquals(0, cleared.setUpHits() + cleared.setUpMisses()
+            + cleared.setUpEvictions());
+        assertEquals(0, total(cleared.readConfigNanos())
+            + total(cleared.setUpNanos()) + total(cleared.lineNanos()));
+    }
+
+    /**
+     * Test the edges of the histogram buckets: 0 alone, then [1, 2),
+     * [2, 4) and so on, with negative durations counted as 0 and the
+     * last bucket taking all larger ones.
+     */
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.add(0);
+        histogram.add(-7);
+        long[] counts = histogram.counts();
+        assertEquals(2, counts[0]);
+        assertEquals(2, total(counts));
+
+        int buckets = counts.length;
+        for (int k = 0; k < buckets - 2; k++) {
+            histogram.reset();
+            histogram.add(1L << k);
+            histogram.add((1L << (k + 1)) - 1);
+            counts = histogram.counts();
+            assertEquals(2, counts[k + 1]);
+            assertEquals(2, total(counts));
+        }
+
+        histogram.reset();
+        histogram.add(1L << (buckets - 2));
+        histogram.add(Long.MAX_VALUE);
+        assertEquals(2, histogram.counts()[buckets - 1]);
+        histogram.reset();
+        assertEquals(0, total(histogram.counts()));
+    }
+
+    /**
+     * Test the characters, advances per slot and double steps a machine
+     * records over the "Double Stepping" example of testSeek: from AXLE,
+     * rotor I reaches its notch at Q 24 times in 612 characters, the
+     * last time taking rotor IV to its notch at J, so that rotor IV
+     * double-steps and carries rotor III once.
+     */
+    @Test
+    public void testMachine() {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        machine.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        Metrics.reset();
+        for (int i = 0; i < 612; i++) {
+            machine.convert(0);
+        }
+        Metrics.Snapshot snapshot = Metrics.snapshot();
+        assertEquals("AYKS", machine.getSettings());
+        assertEquals(612, snapshot.characters());
+        assertEquals(0, snapshot.advances(1));
+        assertEquals(1, snapshot.advances(2));
+        assertEquals(25, snapshot.advances(3));
+        assertEquals(612, snapshot.advances(4));
+        assertEquals(1, snapshot.doubleSteps());
+        Metrics.reset();
+    }
+
+    /** Return the sum of COUNTS. */
+    private static long total(long[] counts) {
+        long result = 0;
+        for (long count : counts) {
+            result += count;
+        }
+        return result;
+    }
+}
@@ -1,8 +1,5 @@
 package enigma;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /** Class that represents a rotating rotor in the enigma machine.
  *  @author Jianing Yu
  */
@@ -16,12 +13,23 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
 
-        this._notches = new HashSet<>();
+        this._notches = new boolean[perm.size()];
         for (int i = 0; i < notches.length(); i++) {
             char ch = notches.charAt(i);
             int idx = perm.alphabet().toInt(ch);
-            this._notches.add(idx);
+            this._notches[idx] = true;
+        }
+
+        this._notchesBefore = new int[perm.size() + 1];
+        for (int i = 0; i < perm.size(); i++) {
+            _notchesBefore[i + 1] = _notchesBefore[i] + (_notches[i] ? 1 : 0);
         }
+
+        boolean adjacent = false;
+        for (int i = 0; i < perm.size(); i++) {
+            adjacent |= _notches[i] && _notches[perm.wrap(i + 1)];
+        }
+        _adjacentNotches = adjacent;
     }
 
     @Override
@@ -30,18 +38,31 @@ class MovingRotor extends Rotor {
     }
 
     @Override
-    boolean atNotch() {
-        return _notches.contains(setting());
+    boolean atNotch(int setting) {
+        return _notches[setting];
+    }
+
+    @Override
+    int notchesBefore(int posn) {
+        return _notchesBefore[posn];
     }
 
     @Override
-    void advance() {
-        int nextPos = this.permutation().wrap(setting() + 1);
-        set(nextPos);
+    boolean adjacentNotches() {
+        return _adjacentNotches;
     }
 
     /**
-     * Notches of this rotor.
+     * Notches of this rotor: _notches[K] is true iff K is a notch.
+     */
+    private final boolean[] _notches;
+
+    /**
+     * Number of notches before each setting: _notchesBefore[K] counts the
+     * notches among settings 0 .. K - 1.
      */
-    private Set<Integer> _notches;
+    private final int[] _notchesBefore;
+
+    /** True iff I have notches at two adjacent settings. */
+    private final boolean _adjacentNotches;
 }
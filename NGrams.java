@@ -0,0 +1,168 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.error;
+
+/** Log-probabilities of the N-grams (sequences of N characters) of a
+ *  language over an alphabet, for scoring candidate plaintexts.  The
+ *  table is indexed by the N-gram read as a number in base alphabet
+ *  size.  Tables of up to trigrams are kept in a float array; larger
+ *  ones (quadgrams) are kept off the heap, in a direct buffer.
+ *  @author Jianing Yu
+ */
+final class NGrams {
+
+    /** A table of N-grams over ALPHABET whose counts are COUNTS. */
+    private NGrams(Alphabet alphabet, int n, long[] counts) {
+        _alphabet = alphabet;
+        _n = n;
+        _mod = entries(alphabet.size(), n - 1);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            throw error("no %d-grams to count", n);
+        }
+        float floor = (float) Math.log10(FLOOR / total);
+        if (n <= MAX_HEAP_N) {
+            _heap = new float[counts.length];
+            _offHeap = null;
+        } else {
+            _heap = null;
+            _offHeap = ByteBuffer.allocateDirect(counts.length * Float.BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        for (int i = 0; i < counts.length; i++) {
+            float score = counts[i] == 0 ? floor
+                : (float) Math.log10((double) counts[i] / total);
+            if (_heap != null) {
+                _heap[i] = score;
+            } else {
+                _offHeap.put(i, score);
+            }
+        }
+    }
+
+    /** Return the table of N-grams over ALPHABET counted in TEXT, whose
+     *  characters outside ALPHABET are ignored. */
+    static NGrams train(CharSequence text, Alphabet alphabet, int n) {
+        if (n < 1) {
+            throw error("n-grams must have at least one character");
+        }
+        int size = alphabet.size();
+        long[] counts = new long[entries(size, n)];
+        int mod = entries(size, n - 1);
+        int index = 0, run = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (!alphabet.contains(ch)) {
+                continue;
+            }
+            index = index % mod * size + alphabet.toInt(ch);
+            if (++run >= n) {
+                counts[index]++;
+            }
+        }
+        return new NGrams(alphabet, n, counts);
+    }
+
+    /** Return the table of N-grams over ALPHABET read from COUNTS, a
+     *  sequence of N-grams each followed by its count, such as "TION
+     *  13168375".  N is the length of the first N-gram. */
+    static NGrams read(Scanner counts, Alphabet alphabet) {
+        if (!counts.hasNext()) {
+            throw error("no n-grams given");
+        }
+        long[] table = null;
+        int n = 0;
+        while (counts.hasNext()) {
+            String gram = counts.next();
+            if (table == null) {
+                n = gram.length();
+                table = new long[entries(alphabet.size(), n)];
+            } else if (gram.length() != n) {
+                throw error("n-gram %s is not of length %d", gram, n);
+            }
+            if (!counts.hasNextLong()) {
+                throw error("missing count for n-gram %s", gram);
+            }
+            int index = 0;
+            for (int i = 0; i < n; i++) {
+                index = index * alphabet.size()
+                    + alphabet.toInt(gram.charAt(i));
+            }
+            table[index] += counts.nextLong();
+        }
+        return new NGrams(alphabet, n, table);
+    }
+
+    /** Return the number of characters in my N-grams. */
+    int n() {
+        return _n;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the log-probability of the N-gram whose index is INDEX. */
+    float score(int index) {
+        return _heap != null ? _heap[index] : _offHeap.get(index);
+    }
+
+    /** Return the sum of the log-probabilities of the N-grams in the first
+     *  LEN alphabet indices of TEXT. */
+    double score(int[] text, int len) {
+        int size = _alphabet.size();
+        double result = 0;
+        int index = 0;
+        for (int i = 0; i < len; i++) {
+            index = index % _mod * size + text[i];
+            if (i >= _n - 1) {
+                result += score(index);
+            }
+        }
+        return result;
+    }
+
+    /** Return SIZE ** N, which must fit in an int. */
+    private static int entries(int size, int n) {
+        long result = 1;
+        for (int i = 0; i < n; i++) {
+            result *= size;
+            if (result > Integer.MAX_VALUE / Float.BYTES) {
+                throw error("too many %d-grams over this alphabet", n);
+            }
+        }
+        return (int) result;
+    }
+
+    /** Count assumed for N-grams never seen, to keep their log-probability
+     *  finite. */
+    private static final double FLOOR = 0.01;
+
+    /** Largest N whose tables are kept on the heap. */
+    private static final int MAX_HEAP_N = 3;
+
+    /** The alphabet of my N-grams. */
+    private final Alphabet _alphabet;
+
+    /** Length of my N-grams. */
+    private final int _n;
+
+    /** Number of (N-1)-grams, by which a rolling index is reduced before
+     *  adding a character. */
+    private final int _mod;
+
+    /** Log-probabilities when kept on the heap, else null. */
+    private final float[] _heap;
+
+    /** Log-probabilities when kept off the heap, else null. */
+    private final FloatBuffer _offHeap;
+}
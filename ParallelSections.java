@@ -0,0 +1,230 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.error;
+
+/** Processes the sections of an input in the format read by Main
+ *  concurrently.  A section is a setting line and the message lines up to
+ *  the next setting line; since the setting line resets the machine, each
+ *  section can be converted on its own machine.  Sections are converted
+ *  on a fixed pool of threads, each with its own machine, and written in
+ *  input order.  At most a bounded number of sections are in flight at a
+ *  time.
+ *  @author Jianing Yu
+ */
+class ParallelSections {
+
+    /** Processes sections read from SOURCE on THREADS threads, each of
+     *  which gets a machine from MACHINES, and writes them to SINK. */
+    ParallelSections(Readable source, Supplier<Machine> machines,
+                     GroupWriter sink, int threads) {
+        _source = source;
+        _machines = ThreadLocal.withInitial(machines);
+        _sink = sink;
+        _threads = threads;
+    }
+
+    /** Process the whole source. As in Main, the output of sections before
+     *  an erroneous one, and the lines of that section converted before
+     *  the error, are written before the error is reported. */
+    void run() {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, r -> {
+            Thread thread = new Thread(r, "enigma-section");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            split(pool);
+            while (!_inFlight.isEmpty()) {
+                writeNext();
+            }
+        } finally {
+            pool.shutdownNow();
+            _sink.flush();
+        }
+    }
+
+    /** Read the source, submitting each section to POOL as soon as it is
+     *  complete, and writing finished sections while too many are in
+     *  flight. */
+    private void split(ExecutorService pool) {
+        CharBuffer buffer = CharBuffer.allocate(CHUNK);
+        StringBuilder section = new StringBuilder();
+        int lineStart = 0;
+        boolean lineFeed = false;
+        try {
+            while (_source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    char ch = buffer.get();
+                    if (lineFeed && ch == '\n') {
+                        section.append(ch);
+                        lineStart = section.length();
+                        lineFeed = false;
+                        continue;
+                    }
+                    lineFeed = ch == '\r';
+                    if (Transcriber.isLineEnd(ch) && lineStart > 0
+                        && isSetting(section, lineStart, section.length())) {
+                        submit(pool, section, lineStart);
+                        lineStart = 0;
+                    }
+                    section.append(ch);
+                    if (Transcriber.isLineEnd(ch)) {
+                        lineStart = section.length();
+                    }
+                }
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+        if (lineStart > 0
+            && isSetting(section, lineStart, section.length())) {
+            submit(pool, section, lineStart);
+        }
+        submit(pool, section, section.length());
+    }
+
+    /** Return true iff the line of TEXT from START to END is a setting
+     *  line. */
+    private static boolean isSetting(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if (ch > ' ') {
+                return ch == '*';
+            }
+        }
+        return false;
+    }
+
+    /** Submit the first END characters of TEXT as a section to POOL and
+     *  remove them from TEXT. */
+    private void submit(ExecutorService pool, StringBuilder text, int end) {
+        String section = text.substring(0, end);
+        text.delete(0, end);
+        if (section.isEmpty() && _index > 0) {
+            return;
+        }
+        while (_inFlight.size() >= _threads * SECTIONS_PER_THREAD) {
+            writeNext();
+        }
+        _inFlight.add(pool.submit(new Section(section, _plugboard)));
+
+        int newline = 0;
+        while (newline < section.length()
+               && !Transcriber.isLineEnd(section.charAt(newline))) {
+            newline++;
+        }
+        int paren = section.indexOf("(");
+        if (paren != -1 && paren < newline
+            && isSetting(section, 0, newline)) {
+            _plugboard = section.substring(paren, newline);
+        }
+        _index++;
+    }
+
+    /** Write the output of the oldest section in flight, waiting for it
+     *  if necessary. */
+    private void writeNext() {
+        Section done;
+        try {
+            done = _inFlight.poll().get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            throw error("%s", excp.getCause());
+        }
+        _sink.write(done._output);
+        if (done._failure != null) {
+            throw done._failure;
+        }
+    }
+
+    /** One section of input and, once converted, its output. */
+    private class Section implements Callable<Section> {
+
+        /** A section whose input is TEXT. PLUGBOARD is the plugboard given
+         *  by the last setting line before it that has one, or null. */
+        Section(String text, String plugboard) {
+            _text = text;
+            _plugboardSpec = plugboard;
+        }
+
+        @Override
+        public Section call() {
+            Machine machine = _machines.get();
+            _output = CharBuffer.allocate(_text.length() + 1);
+            try {
+                /* Main keeps the previous plugboard when a setting line
+                 * does not give one. */
+                machine.setPlugboard(_plugboardSpec == null ? null
+                    : new Permutation(_plugboardSpec, machine.alphabet()));
+                Transcriber transcriber = new Transcriber(machine);
+                transcriber.transcribe(CharBuffer.wrap(_text), _output);
+                transcriber.finish(_output);
+            } catch (EnigmaException excp) {
+                _failure = excp;
+                int end = _output.position();
+                while (end > 0
+                       && _output.get(end - 1) != Transcriber.LINE_END) {
+                    end--;
+                }
+                _output.position(end);
+            }
+            _output.flip();
+            _text = null;
+            return this;
+        }
+
+        /** The input of this section. */
+        private String _text;
+
+        /** Plugboard in effect at the start of this section, or null. */
+        private final String _plugboardSpec;
+
+        /** The converted output, in the form produced by Transcriber. */
+        private CharBuffer _output;
+
+        /** The error that stopped the conversion, if any. */
+        private EnigmaException _failure;
+    }
+
+    /** Size of the input buffer, in characters. */
+    private static final int CHUNK = 1 << 16;
+
+    /** Number of sections in flight per thread. */
+    private static final int SECTIONS_PER_THREAD = 4;
+
+    /** Source of input characters. */
+    private final Readable _source;
+
+    /** Machine of each pool thread. */
+    private final ThreadLocal<Machine> _machines;
+
+    /** Destination of the output. */
+    private final GroupWriter _sink;
+
+    /** Number of threads converting sections. */
+    private final int _threads;
+
+    /** Sections submitted but not yet written, oldest first. */
+    private final Deque<Future<Section>> _inFlight = new ArrayDeque<>();
+
+    /** Plugboard given by the last setting line that had one, or null. */
+    private String _plugboard;
+
+    /** Number of sections submitted so far. */
+    private int _index;
+}
@@ -0,0 +1,43 @@
+package enigma;
+
+import java.io.IOException;
+import java.util.Scanner;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the ParallelSections class.
+ *
+ * @author Jianing Yu
+ */
+public class ParallelSectionsTest {
+    /**
+     * Test converting input with ParallelSections on one to three threads,
+     * reading a few characters at a time so that reads end inside CRLFs
+     * and setting lines, against Main converting it line by line.  With
+     * more sections than may be in flight at once, the output must still
+     * be in input order, and a failing line must leave the output of
+     * everything before it.
+     */
+    @Test
+    public void testParallelSections() throws IOException {
+        Machine machine = Main.readConfig(new Scanner(NAVALA_CONFIG));
+        String repeated = (SECTIONS + "\n").repeat(6);
+        int edge = SECTIONS.indexOf('\r');
+        for (String input : new String[] {SECTIONS, repeated + SECTIONS,
+                                          repeated + SECTIONS + BAD_LINE
+                                          + repeated}) {
+            String expected = lineMode(input);
+            for (int threads = 1; threads <= 3; threads++) {
+                for (int chunk : new int[] {1, 3, edge}) {
+                    Readable source = chunked(input, chunk);
+                    int count = threads;
+                    assertEquals(expected, written(sink -> new ParallelSections(
+                        source, machine::copy, sink, count).run()));
+                }
+            }
+        }
+    }
+}
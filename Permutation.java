@@ -1,6 +1,7 @@
 package enigma;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static enigma.EnigmaException.*;
@@ -18,10 +19,14 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
 
-        List<String> cycleArray = parseCycles(cycles);
-        _cycles = new ArrayList<>(cycleArray.size());
-        for (String cycleStr : cycleArray) {
+        for (String cycleStr : parseCycles(cycles)) {
             if (cycleStr.trim().isEmpty()) {
                 continue;
             }
@@ -30,6 +35,25 @@ class Permutation {
         }
     }
 
+    /** Set this Permutation to the one mapping each K in the range of
+     *  indices of ALPHABET to FORWARD[K]. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        if (forward.length != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = forward.clone();
+        _inverse = new int[forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < _forward.length; i++) {
+            int to = _forward[i];
+            if (to < 0 || to >= _inverse.length || _inverse[to] != -1) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[to] = i;
+        }
+    }
+
     /**
      * Parse cycles inputted.
      *
@@ -61,11 +85,20 @@ class Permutation {
             int index = _alphabet.toInt(ch);
             cycleList.add(index);
         }
-        _cycles.add(cycleList);
+
+        for (int i = 0, len = cycleList.size(); i < len; i++) {
+            int from = cycleList.get(i);
+            int to = cycleList.get((i + 1) % len);
+            _forward[from] = to;
+            _inverse[to] = from;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
+        if (p >= 0 && p < _forward.length) {
+            return p;
+        }
         int r = p % size();
         if (r < 0) {
             r += size();
@@ -81,37 +114,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int r = wrap(p);
-
-        for (List<Integer> cycle : _cycles) {
-            int index = cycle.indexOf(r);
-            if (index == -1) {
-                continue;
-            }
-
-            int next = (index + 1) % cycle.size();
-            return cycle.get(next);
-        }
-
-        return r;
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int r = wrap(c);
-
-        for (List<Integer> cycle : _cycles) {
-            int index = cycle.indexOf(r);
-            if (index == -1) {
-                continue;
-            }
-
-            int next = (index - 1 + cycle.size()) % cycle.size();
-            return cycle.get(next);
-        }
-
-        return r;
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -134,18 +143,64 @@ class Permutation {
         return _alphabet;
     }
 
+    /** Return my cycles, each as a list of indices c0, c1, ..., cm in
+     *  which each maps to the next and cm maps to c0. Each cycle starts
+     *  at its smallest index, and they are listed in order of those
+     *  indices. Values that map to themselves form cycles of length 1,
+     *  so every index is in exactly one cycle. */
+    List<List<Integer>> cycles() {
+        List<List<Integer>> result = new ArrayList<>();
+        boolean[] seen = new boolean[_forward.length];
+        for (int start = 0; start < _forward.length; start++) {
+            if (seen[start]) {
+                continue;
+            }
+            List<Integer> cycle = new ArrayList<>();
+            for (int i = start; !seen[i]; i = _forward[i]) {
+                seen[i] = true;
+                cycle.add(i);
+            }
+            result.add(cycle);
+        }
+        return result;
+    }
+
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        int cycleSum = 0;
-        return cycleSum == _alphabet.size();
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Permutation)) {
+            return false;
+        }
+        Permutation other = (Permutation) obj;
+        return _alphabet == other._alphabet
+            && Arrays.equals(_forward, other._forward);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_forward);
     }
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
     /**
-     * All cycles in this permutation.
+     * Lookup table of this permutation: index K maps to _forward[K].
+     */
+    private final int[] _forward;
+
+    /**
+     * Lookup table of the inverse of this permutation.
      */
-    private List<List<Integer>> _cycles;
+    private final int[] _inverse;
 }
@@ -0,0 +1,115 @@
+package enigma;
+
+import java.util.List;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Permutation class.
+ *
+ * @author Jianing Yu
+ */
+public class PermutationTest {
+    /**
+     * Test that permute and invert undo each other, on indices and on
+     * characters, for every rotor of the Naval Enigma, and that indices
+     * outside the alphabet are taken modulo its size.
+     */
+    @Test
+    public void testRoundTrip() {
+        for (String[] rotor : NAVALA) {
+            Permutation perm = new Permutation(rotor[1], UPPER);
+            assertEquals(UPPER.size(), perm.size());
+            for (int p = 0; p < perm.size(); p++) {
+                assertEquals(p, perm.invert(perm.permute(p)));
+                assertEquals(p, perm.permute(perm.invert(p)));
+                assertEquals(perm.permute(p), perm.permute(p + perm.size()));
+                assertEquals(perm.invert(p), perm.invert(p - perm.size()));
+                char ch = UPPER.toChar(p);
+                assertEquals(ch, perm.invert(perm.permute(ch)));
+                assertEquals(UPPER.toChar(perm.permute(p)), perm.permute(ch));
+            }
+        }
+    }
+
+    /**
+     * Test that characters in no cycle, or alone in one, map to
+     * themselves, and that whitespace between cycles is ignored.
+     */
+    @Test
+    public void testFixedPoints() {
+        Permutation perm = new Permutation(" (BCA)(D)  (FE) ",
+            new Alphabet("ABCDEFG"));
+        assertEquals('B', perm.permute('A'));
+        assertEquals('A', perm.permute('C'));
+        assertEquals('C', perm.invert('A'));
+        assertEquals('D', perm.permute('D'));
+        assertEquals('G', perm.permute('G'));
+        assertEquals('G', perm.invert('G'));
+        assertEquals('E', perm.permute('F'));
+
+        Permutation identity = new Permutation("", UPPER);
+        for (int p = 0; p < UPPER.size(); p++) {
+            assertEquals(p, identity.permute(p));
+            assertEquals(p, identity.invert(p));
+        }
+    }
+
+    /**
+     * Test derangement on permutations with and without fixed points.
+     */
+    @Test
+    public void testDerangement() {
+        for (String[] rotor : NAVALA) {
+            Permutation perm = new Permutation(rotor[1], UPPER);
+            boolean fixed = false;
+            for (int p = 0; p < UPPER.size(); p++) {
+                fixed |= perm.permute(p) == p;
+            }
+            assertEquals(rotor[0], !fixed, perm.derangement());
+        }
+        assertTrue(new Permutation("(AB) (CD)", new Alphabet("ABCD"))
+            .derangement());
+        assertFalse(new Permutation("(AB) (C) (D)", new Alphabet("ABCD"))
+            .derangement());
+        assertFalse(new Permutation("(ABC)", new Alphabet("ABCD"))
+            .derangement());
+    }
+
+    /**
+     * Test the cycles of permutations given by cycles and by tables.
+     */
+    @Test
+    public void testCycles() {
+        Alphabet alphabet = new Alphabet("ABCDEFG");
+        Permutation perm = new Permutation("(CAB) (D) (GE)", alphabet);
+        assertEquals(List.of(List.of(0, 1, 2), List.of(3), List.of(4, 6),
+                List.of(5)), perm.cycles());
+
+        Permutation table = new Permutation(new int[] {1, 2, 0, 3, 6, 5, 4},
+            alphabet);
+        assertEquals(perm, table);
+        assertEquals(perm.cycles(), table.cycles());
+        assertEquals(perm, new Permutation("(BCA) (EG)", alphabet));
+    }
+
+    /**
+     * Test that a table that is not a permutation of the alphabet is
+     * rejected.
+     */
+    @Test
+    public void testBadTable() {
+        Alphabet alphabet = new Alphabet("ABC");
+        for (int[] forward : new int[][] {
+                {0, 1}, {0, 1, 1}, {0, 1, 3}, {-1, 0, 1}}) {
+            try {
+                new Permutation(forward, alphabet);
+                fail("accepted a table that is not a permutation");
+            } catch (EnigmaException excp) {
+                continue;
+            }
+        }
+    }
+}
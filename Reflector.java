@@ -1,7 +1,5 @@
 package enigma;
 
-import static enigma.EnigmaException.*;
-
 /** Class that represents a reflector in the enigma.
  *  @author Jianing Yu
  */
@@ -10,19 +8,9 @@ class Reflector extends FixedRotor {
     /** A non-moving rotor named NAME whose permutation at the 0 setting
      * is PERM. */
     Reflector(String name, Permutation perm) {
-        /* FIXME */
         super(name, perm);
     }
 
-    /* FIXME? */
-
-    @Override
-    void set(int posn) {
-        if (posn != 0) {
-            throw error("reflector has only one position");
-        }
-    }
-
     @Override
     boolean reflecting() {
         return true;
@@ -2,7 +2,10 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine: its name,
+ *  wiring and notches.  A rotor is immutable and holds no setting, which
+ *  is kept by each machine it is inserted in, so one rotor can be shared
+ *  by any number of machines on any number of threads.
  *  @author Jianing Yu
  */
 class Rotor {
@@ -11,6 +14,20 @@ class Rotor {
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
+        _size = perm.size();
+    }
+
+    /** Precompute my wiring at every setting, so that convertForward and
+     *  convertBackward become table lookups. Does nothing if I reflect
+     *  (a reflector is only ever read at setting 0), if my alphabet is
+     *  larger than MAX_TABLE_SIZE, or if the tables already exist.
+     *  Machines call this as they insert me, so rotors that are only
+     *  held in a library cost no table memory. May be called from any
+     *  number of threads. */
+    void prepare() {
+        if (_tables == null && !reflecting() && _size <= MAX_TABLE_SIZE) {
+            _tables = new Tables(_permutation);
+        }
     }
 
     /** Return my name. */
@@ -43,45 +60,53 @@ class Rotor {
         return false;
     }
 
-    /** Return my current setting. */
-    int setting() {
-        return _setting;
-    }
-
-    /** Set setting() to POSN.  */
-    void set(int posn) {
-        _setting = posn;
-    }
-
-    /** Set setting() to character CPOSN. */
-    void set(char cposn) {
-        _setting = _permutation.alphabet().toInt(cposn);
-    }
-
     /** Return the conversion of P (an integer in the range 0..size()-1)
-     *  according to my permutation. */
-    int convertForward(int p) {
-        p = _permutation.wrap(p + _setting);
-        int next = _permutation.permute(p);
-        return _permutation.wrap(next - _setting);
+     *  according to my permutation when I am at setting SETTING. */
+    int convertForward(int p, int setting) {
+        Tables tables = _tables;
+        if (tables != null) {
+            return tables._forward[setting * _size + p];
+        }
+        p += setting;
+        if (p >= _size) {
+            p -= _size;
+        }
+        int next = _permutation.permute(p) - setting;
+        return next < 0 ? next + _size : next;
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
-     *  according to the inverse of my permutation. */
-    int convertBackward(int e) {
-        e = _permutation.wrap(e + _setting);
-        int next = _permutation.invert(e);
-        return _permutation.wrap(next - _setting);
+     *  according to the inverse of my permutation when I am at setting
+     *  SETTING. */
+    int convertBackward(int e, int setting) {
+        Tables tables = _tables;
+        if (tables != null) {
+            return tables._backward[setting * _size + e];
+        }
+        e += setting;
+        if (e >= _size) {
+            e -= _size;
+        }
+        int next = _permutation.invert(e) - setting;
+        return next < 0 ? next + _size : next;
     }
 
-    /** Returns true iff I am positioned to allow the rotor to my left
+    /** Returns true iff at setting SETTING I allow the rotor to my left
      *  to advance. */
-    boolean atNotch() {
+    boolean atNotch(int setting) {
         return false;
     }
 
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
+    /** Returns the number of my notches at settings 0 .. POSN - 1, where
+     *  0 <= POSN <= size(). By default, there are none. */
+    int notchesBefore(int posn) {
+        return 0;
+    }
+
+    /** Returns true iff I have notches at two adjacent settings (counted
+     *  cyclically). By default, I have no notches. */
+    boolean adjacentNotches() {
+        return false;
     }
 
     @Override
@@ -93,10 +118,49 @@ class Rotor {
     private final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    private final Permutation _permutation;
+
+    /** The size of my alphabet. */
+    private final int _size;
 
     /**
-     * The setting of this rotor.
+     * Alphabets up to this size have their wiring precomputed for every
+     * setting; larger ones would need too much memory per rotor.
      */
-    private int _setting;
+    private static final int MAX_TABLE_SIZE = Alphabet.BYTE_VALUES;
+
+    /**
+     * My wiring at every setting, or null until prepare builds it. Its
+     * fields are final, so a thread that sees the reference also sees
+     * the contents, and a race at most builds the tables twice.
+     */
+    private Tables _tables;
+
+    /** The wiring of a rotor at every one of its settings. */
+    private static final class Tables {
+
+        /** The tables for a rotor whose permutation is PERM. */
+        Tables(Permutation perm) {
+            int size = perm.size();
+            _forward = new int[size * size];
+            _backward = new int[size * size];
+            for (int s = 0; s < size; s++) {
+                for (int p = 0; p < size; p++) {
+                    _forward[s * size + p] =
+                        perm.wrap(perm.permute(p + s) - s);
+                    _backward[s * size + p] =
+                        perm.wrap(perm.invert(p + s) - s);
+                }
+            }
+        }
+
+        /**
+         * Forward wiring: the conversion of P at setting S is at
+         * S * size + P.
+         */
+        private final int[] _forward;
+
+        /** Backward wiring, laid out like _forward. */
+        private final int[] _backward;
+    }
 }
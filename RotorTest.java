@@ -0,0 +1,103 @@
+package enigma;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Rotor class.
+ *
+ * @author Jianing Yu
+ */
+public class RotorTest {
+    /**
+     * Test that a rotor over an alphabet too large for precomputed tables
+     * converts at every setting as its permutation dictates, and that
+     * prepare leaves it on that path.
+     */
+    @Test
+    public void testWideAlphabet() {
+        Random random = new Random(4);
+        Alphabet alphabet = wideAlphabet(300);
+        Permutation perm = randomPermutation(alphabet, random, false);
+        Rotor rotor = new MovingRotor("W", perm, "");
+        checkConversions(rotor, perm);
+        rotor.prepare();
+        checkConversions(rotor, perm);
+    }
+
+    /**
+     * Test that preparing a rotor over a small alphabet builds tables
+     * that agree with its permutation, and that a reflector converts
+     * correctly at setting 0 whether or not it was prepared.
+     */
+    @Test
+    public void testPrepare() {
+        Random random = new Random(5);
+        Permutation perm = randomPermutation(UPPER, random, false);
+        Rotor rotor = new MovingRotor("M", perm, "AQ");
+        checkConversions(rotor, perm);
+        rotor.prepare();
+        checkConversions(rotor, perm);
+        rotor.prepare();
+        checkConversions(rotor, perm);
+
+        Permutation reflection = randomPermutation(UPPER, random, true);
+        Rotor reflector = new Reflector("B", reflection);
+        reflector.prepare();
+        for (int p = 0; p < UPPER.size(); p++) {
+            assertEquals(reflection.permute(p),
+                reflector.convertForward(p, 0));
+        }
+    }
+
+    /**
+     * Test that a rotor shared by threads that prepare it concurrently,
+     * as machines on those threads do when inserting it, converts
+     * correctly in each.
+     */
+    @Test
+    public void testShared() throws InterruptedException {
+        Random random = new Random(6);
+        Permutation perm = randomPermutation(UPPER, random, false);
+        Rotor rotor = new MovingRotor("S", perm, "");
+        Thread[] threads = new Thread[4];
+        boolean[] ok = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                rotor.prepare();
+                ok[index] = agrees(rotor, perm);
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+    }
+
+    /** Assert that ROTOR converts as PERM shifted by each setting. */
+    private static void checkConversions(Rotor rotor, Permutation perm) {
+        assertTrue(agrees(rotor, perm));
+    }
+
+    /** Return true iff ROTOR converts forward and backward, at every
+     *  setting, as PERM shifted by that setting. */
+    private static boolean agrees(Rotor rotor, Permutation perm) {
+        int size = perm.size();
+        for (int s = 0; s < size; s++) {
+            for (int p = 0; p < size; p++) {
+                int forward = perm.wrap(perm.permute(perm.wrap(p + s)) - s);
+                int backward = perm.wrap(perm.invert(perm.wrap(p + s)) - s);
+                if (rotor.convertForward(p, s) != forward
+                    || rotor.convertBackward(p, s) != backward) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of the setting lines applied to a machine, each with
+ *  the machine state it produced (rotor ids and settings) and its
+ *  plugboard, so that applying a line again is a restoreState rather than
+ *  a parse.  The least recently used line is evicted when the cache is
+ *  full.  Plugboards are held here rather than given ids in the machine,
+ *  so that evicting a line frees its plugboard.  A cache belongs to one
+ *  machine (and is no more thread-safe than it).
+ *  @author Jianing Yu
+ */
+final class SetupCache {
+
+    /** A cache of at most CAPACITY lines. */
+    SetupCache(int capacity) {
+        _capacity = capacity;
+        _states = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Setup> e) {
+                if (size() > _capacity) {
+                    _evictions++;
+                    if (Metrics.ENABLED) {
+                        Metrics.setUpEvicted();
+                    }
+                    return true;
+                }
+                return false;
+            }
+
+            /** Version for serialization. */
+            private static final long serialVersionUID = 1L;
+        };
+    }
+
+    /** If setting line SETTINGS is cached, restore its state in MACHINE
+     *  and return true; otherwise return false.  A line without a
+     *  plugboard leaves MACHINE's plugboard as it was. */
+    boolean apply(Machine machine, String settings) {
+        Setup setup = _capacity > 0 ? _states.get(settings) : null;
+        if (Metrics.ENABLED) {
+            Metrics.setUpCached(setup != null);
+        }
+        if (setup == null) {
+            _misses++;
+            return false;
+        }
+        _hits++;
+        machine.restoreState(setup._state);
+        if (setup._plugboard != null) {
+            machine.setPlugboard(setup._plugboard);
+        }
+        return true;
+    }
+
+    /** Cache the current state of MACHINE as the result of applying
+     *  setting line SETTINGS, which set its plugboard iff PLUGBOARD. */
+    void record(Machine machine, String settings, boolean plugboard) {
+        if (_capacity > 0) {
+            int[] state = new int[machine.stateSize()];
+            machine.saveRotorState(state);
+            _states.put(settings,
+                new Setup(state, plugboard ? machine.plugboard() : null));
+        }
+    }
+
+    /** Return the number of lines found in the cache. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lines not found in the cache. */
+    long misses() {
+        return _misses;
+    }
+
+    /** Return the number of lines evicted from the cache. */
+    long evictions() {
+        return _evictions;
+    }
+
+    /** Default capacity of a machine's cache, which is set by the system
+     *  property enigma.setupCache (0 disables caching). */
+    static final int DEFAULT_CAPACITY =
+        Integer.getInteger("enigma.setupCache", 1024);
+
+    /** Maximum number of lines cached. */
+    private final int _capacity;
+
+    /** The state and plugboard produced by each line, in access order. */
+    private final LinkedHashMap<String, Setup> _states;
+
+    /** Counts of hits, misses and evictions. */
+    private long _hits, _misses, _evictions;
+
+    /** The result of applying a setting line. */
+    private static class Setup {
+
+        /** The result of a line leaving a machine in STATE, as saved by
+         *  saveRotorState, with plugboard PLUGBOARD, or null if the line
+         *  leaves the plugboard as it was. */
+        Setup(int[] state, Permutation plugboard) {
+            _state = state;
+            _plugboard = plugboard;
+        }
+
+        /** Rotor ids and settings. */
+        private final int[] _state;
+
+        /** Plugboard set, or null. */
+        private final Permutation _plugboard;
+    }
+}
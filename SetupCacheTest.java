@@ -0,0 +1,39 @@
+package enigma;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the SetupCache class.
+ *
+ * @author Jianing Yu
+ */
+public class SetupCacheTest {
+    /**
+     * Test that repeated setting lines give the same results.
+     */
+    @Test
+    public void testSetUpCache() {
+        Machine machine = new Machine(UPPER, 5, 3, NAVALA_ROTORS);
+        String line = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Main.setUp(machine, line);
+        String expected = machine.convert("HELLOWORLD");
+        Main.setUp(machine, "* B Gamma I II V ZZZZ (AB)");
+        Main.setUp(machine, line);
+        assertEquals(expected, machine.convert("HELLOWORLD"));
+        assertEquals(1, machine.setups().hits());
+        assertEquals(2, machine.setups().misses());
+
+        Main.setUp(machine, "* B Beta III IV I AXLE");
+        Main.setUp(machine, "* B Beta III IV I AXLE");
+        assertEquals(expected, machine.convert("HELLOWORLD"));
+        assertEquals(2, machine.setups().hits());
+
+        for (char c = 'A'; c < 'Z'; c++) {
+            Main.setUp(machine, "* B Beta III IV I AXLE (" + c + "Z)");
+            Main.setUp(machine, "* B Beta III IV I AXLE (" + c + "Z)");
+        }
+        assertEquals(1, machine.plugboardId());
+    }
+}
@@ -0,0 +1,256 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.EnigmaException.error;
+
+/** Runs a Transcriber over a source of characters in three stages joined
+ *  by bounded queues: a reader thread filling character buffers from the
+ *  source, the calling thread converting them, and a writer thread
+ *  formatting the results with a GroupWriter.  All buffers are allocated
+ *  up front and recycled, so memory use does not depend on the size of
+ *  the input.
+ *  @author Jianing Yu
+ */
+class StreamPipeline {
+
+    /** A pipeline reading from SOURCE, converting with TRANSCRIBER, and
+     *  writing to SINK, using buffers of CHUNK characters. */
+    StreamPipeline(Readable source, Transcriber transcriber,
+                   GroupWriter sink, int chunk) {
+        _source = source;
+        _transcriber = transcriber;
+        _sink = sink;
+        for (int i = 0; i < DEPTH + 2; i++) {
+            _freeInput.add(CharBuffer.allocate(chunk));
+            _freeOutput.add(CharBuffer.allocate(chunk));
+        }
+    }
+
+    /** A pipeline reading from SOURCE, converting with TRANSCRIBER, and
+     *  writing to SINK. */
+    StreamPipeline(Readable source, Transcriber transcriber,
+                   GroupWriter sink) {
+        this(source, transcriber, sink, DEFAULT_CHUNK);
+    }
+
+    /** Process the whole source. Output converted before an error in the
+     *  input is still written before the error is reported, without
+     *  waiting for the reader, which may be blocked reading a source
+     *  that has no more input yet; being a daemon, it is abandoned. */
+    void run() {
+        Thread reader = new Thread(this::read, "enigma-reader");
+        Thread writer = new Thread(this::write, "enigma-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        _worker = Thread.currentThread();
+        reader.start();
+        writer.start();
+
+        try {
+            convert();
+        } catch (InterruptedException excp) {
+            /* Another stage failed and recorded why. */
+            writer.interrupt();
+        } catch (RuntimeException excp) {
+            _failure.compareAndSet(null, excp);
+            finishOutput();
+        } finally {
+            reader.interrupt();
+            join(writer);
+            if (_failure.get() == null) {
+                join(reader);
+            }
+            Thread.interrupted();
+        }
+
+        RuntimeException failure = _failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Convert input buffers until the end of the source. */
+    private void convert() throws InterruptedException {
+        _out = take(_freeOutput);
+        while (true) {
+            CharBuffer in = _filled.take();
+            if (in == END) {
+                break;
+            }
+            _transcriber.transcribe(in, _out);
+            while (in.hasRemaining()) {
+                ship();
+                _transcriber.transcribe(in, _out);
+            }
+            _freeInput.put(in);
+            if (lastLine(_out) > 0) {
+                ship();
+            }
+        }
+        while (!_transcriber.finish(_out)) {
+            ship();
+        }
+        _out.flip();
+        _converted.put(_out);
+        _converted.put(END);
+    }
+
+    /** Send the complete lines of _out to the writer, or all of _out if
+     *  it has none, and continue with a buffer holding the rest.  Holding
+     *  back the end of a line means that an error later in it leaves none
+     *  of it written, as in Main, unless it is longer than a buffer. */
+    private void ship() throws InterruptedException {
+        int end = lastLine(_out);
+        if (end == 0) {
+            end = _out.position();
+        }
+        CharBuffer next = take(_freeOutput);
+        _out.flip();
+        _out.position(end);
+        next.put(_out);
+        _out.position(0);
+        _out.limit(end);
+        _converted.put(_out);
+        _out = next;
+    }
+
+    /** Return the position in OUT just past its last LINE_END before its
+     *  position, or 0 if it has none. */
+    private static int lastLine(CharBuffer out) {
+        int end = out.position();
+        while (end > 0 && out.get(end - 1) != Transcriber.LINE_END) {
+            end--;
+        }
+        return end;
+    }
+
+    /** After a conversion error, let the writer finish the lines that were
+     *  completely converted, as Main does when it reads line by line. */
+    private void finishOutput() {
+        try {
+            if (_out != null) {
+                _out.position(lastLine(_out));
+                _out.flip();
+                _converted.put(_out);
+            }
+            _converted.put(END);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Body of the reader thread. */
+    private void read() {
+        try {
+            while (true) {
+                CharBuffer in = take(_freeInput);
+                if (_source.read(in) < 0) {
+                    _filled.put(END);
+                    return;
+                }
+                in.flip();
+                _filled.put(in);
+            }
+        } catch (InterruptedException excp) {
+            return;
+        } catch (IOException excp) {
+            fail(error("could not read input: %s", excp.getMessage()));
+        } catch (RuntimeException excp) {
+            fail(excp);
+        }
+    }
+
+    /** Body of the writer thread. */
+    private void write() {
+        try {
+            while (true) {
+                CharBuffer out = _converted.take();
+                if (out == END) {
+                    _sink.flush();
+                    return;
+                }
+                _sink.write(out);
+                _freeOutput.put(out);
+            }
+        } catch (InterruptedException excp) {
+            return;
+        } catch (RuntimeException excp) {
+            fail(excp);
+        }
+    }
+
+    /** Record FAILURE of the reader or writer and stop the worker. */
+    private void fail(RuntimeException failure) {
+        _failure.compareAndSet(null, failure);
+        _worker.interrupt();
+    }
+
+    /** Return a cleared buffer from FREE, waiting if necessary. */
+    private static CharBuffer take(BlockingQueue<CharBuffer> free)
+        throws InterruptedException {
+        CharBuffer result = free.take();
+        result.clear();
+        return result;
+    }
+
+    /** Wait for THREAD to end, even if interrupted. */
+    private static void join(Thread thread) {
+        while (true) {
+            try {
+                thread.join();
+                return;
+            } catch (InterruptedException excp) {
+                continue;
+            }
+        }
+    }
+
+    /** Default size of the buffers, in characters. */
+    private static final int DEFAULT_CHUNK = 1 << 16;
+
+    /** Number of buffers each queue may hold. */
+    private static final int DEPTH = 4;
+
+    /** Marks the end of the buffers in a queue. */
+    private static final CharBuffer END = CharBuffer.allocate(0);
+
+    /** Source of input characters. */
+    private final Readable _source;
+
+    /** Converter of the input. */
+    private final Transcriber _transcriber;
+
+    /** Destination of the output. */
+    private final GroupWriter _sink;
+
+    /** Input buffers ready to be filled. */
+    private final BlockingQueue<CharBuffer> _freeInput =
+        new ArrayBlockingQueue<>(DEPTH + 2);
+
+    /** Input buffers filled by the reader. */
+    private final BlockingQueue<CharBuffer> _filled =
+        new ArrayBlockingQueue<>(DEPTH + 1);
+
+    /** Output buffers ready to be filled. */
+    private final BlockingQueue<CharBuffer> _freeOutput =
+        new ArrayBlockingQueue<>(DEPTH + 2);
+
+    /** Output buffers filled by the worker. */
+    private final BlockingQueue<CharBuffer> _converted =
+        new ArrayBlockingQueue<>(DEPTH + 1);
+
+    /** The first failure in any stage. */
+    private final AtomicReference<RuntimeException> _failure =
+        new AtomicReference<>();
+
+    /** The thread running the worker stage. */
+    private Thread _worker;
+
+    /** The buffer the worker is filling. */
+    private CharBuffer _out;
+}
@@ -0,0 +1,80 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static enigma.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the StreamPipeline class.
+ *
+ * @author Jianing Yu
+ */
+public class StreamPipelineTest {
+    /**
+     * Test converting input with a StreamPipeline, in chunks of several
+     * sizes, some ending inside a CRLF and some at the end of a setting
+     * line, against Main converting it line by line.  A line that fails
+     * leaves no output when it fits in a chunk.
+     */
+    @Test
+    public void testStreamPipeline() throws IOException {
+        Machine machine = Main.readConfig(new Scanner(NAVALA_CONFIG));
+        int edge = SECTIONS.indexOf('\r');
+        String expected = lineMode(SECTIONS);
+        for (int chunk : new int[] {1, 2, 3, 5, 8, edge, edge + 1}) {
+            assertEquals(expected, written(sink -> new StreamPipeline(
+                CharBuffer.wrap(SECTIONS), new Transcriber(machine.copy()),
+                sink, chunk).run()));
+        }
+        expected = lineMode(SECTIONS + BAD_LINE);
+        for (int chunk : new int[] {8, 13, edge}) {
+            assertEquals(expected, written(sink -> new StreamPipeline(
+                CharBuffer.wrap(SECTIONS + BAD_LINE),
+                new Transcriber(machine.copy()), sink, chunk).run()));
+        }
+    }
+
+    /**
+     * Test that a StreamPipeline reports an error in its input without
+     * waiting for its reader, which may be blocked reading from a source
+     * that has no more input yet, as a terminal does.
+     */
+    @Test
+    public void testStreamPipelineBlocked()
+        throws IOException, InterruptedException {
+        Machine machine = Main.readConfig(new Scanner(NAVALA_CONFIG));
+        CharBuffer input = CharBuffer.wrap(SECTIONS + BAD_LINE);
+        CountDownLatch release = new CountDownLatch(1);
+        Readable source = buffer -> {
+            if (input.hasRemaining()) {
+                int count = input.remaining();
+                buffer.put(input);
+                return count;
+            }
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException excp) {
+                    continue;
+                }
+            }
+            return -1;
+        };
+        String[] output = new String[1];
+        Thread run = new Thread(() -> output[0] = written(sink ->
+            new StreamPipeline(source, new Transcriber(machine.copy()),
+                sink, 1024).run()));
+        run.setDaemon(true);
+        run.start();
+        run.join(10000);
+        boolean finished = !run.isAlive();
+        release.countDown();
+        assertTrue(finished);
+        assertEquals(lineMode(SECTIONS + BAD_LINE), output[0]);
+    }
+}
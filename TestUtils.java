@@ -0,0 +1,199 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Data and machines shared by the tests.
+ *  @author Jianing Yu
+ */
+class TestUtils {
+
+    /** The upper-case alphabet A-Z. */
+    static final Alphabet UPPER = new Alphabet();
+
+    /** The rotors of the Naval Enigma (M4), each given by its name,
+     *  its cycles, and its notches. */
+    static final String[][] NAVALA = {
+        { "I", "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)", "Q" },
+        { "II", "(FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)", "E" },
+        { "III", "(ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)", "V" },
+        { "IV", "(AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)", "J" },
+        { "V", "(AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)", "Z" },
+        { "VI", "(AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)", "ZM" },
+        { "VII", "(ANOUPFRIMBZTLWKSVEGCJYDHXQ)", "ZM" },
+        { "VIII", "(AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)", "ZM" },
+        { "Beta", "(ALBEVFCYODJWUGNMQTZSKPR) (HIX)", "" },
+        { "Gamma", "(AFNIRLBSQWVXGUZDKMTPCOYJHE)", "" },
+        { "B", "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) "
+          + "(SZ) (TV)", "" },
+        { "C", "(AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW) (QZ) "
+          + "(SX) (UY)", "" },
+    };
+
+    /** The rotors of NAVALA: reflectors B and C, fixed rotors Beta and
+     *  Gamma, and moving rotors I-VIII. */
+    static final List<Rotor> NAVALA_ROTORS = new ArrayList<>();
+
+    /** A configuration, as read by Main, of a machine with the rotors of
+     *  NAVALA, five slots and three pawls. */
+    static final String NAVALA_CONFIG;
+
+    static {
+        StringBuilder config = new StringBuilder("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        config.append(" 5 3\n");
+        for (String[] rotor : NAVALA) {
+            String type = rotor[0].equals("B") || rotor[0].equals("C") ? "R"
+                : rotor[2].isEmpty() ? "N" : "M" + rotor[2];
+            config.append(String.format(" %s %s %s%n", rotor[0], type,
+                rotor[1]));
+            Permutation perm = new Permutation(rotor[1], UPPER);
+            if (rotor[0].equals("B") || rotor[0].equals("C")) {
+                NAVALA_ROTORS.add(new Reflector(rotor[0], perm));
+            } else if (rotor[2].isEmpty()) {
+                NAVALA_ROTORS.add(new FixedRotor(rotor[0], perm));
+            } else {
+                NAVALA_ROTORS.add(new MovingRotor(rotor[0], perm, rotor[2]));
+            }
+        }
+        NAVALA_CONFIG = config.toString();
+    }
+
+    /** Input with several sections, a setting line without a plugboard,
+     *  blank lines, mixed line terminators, and no terminator at the
+     *  end. */
+    static final String SECTIONS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\r\n"
+        + "FROM HIS SHOULDER HIAWATHA\r\n  TOOK THE CAMERA OF ROSEWOOD\r"
+        + "\r\n* B Gamma II V III QRST\nMADE OF SLIDING FOLDING ROSEWOOD\n"
+        + "\nNEATLY PUT IT ALL TOGETHER\r\n* C Beta I II IV AAAA (AB) (CD)\r"
+        + "IN ITS CASE IT LAY COMPACTLY\r\n\nFOLDED INTO NEARLY NOTHING";
+
+    /** Lines to follow SECTIONS, the first of which cannot be converted. */
+    static final String BAD_LINE =
+        "\r\nAND THEN 9 MORE\r\n* B Beta I II III AAAA\nNEVER SEEN\n";
+
+    /** Appended to the output of a conversion that failed. */
+    static final String FAILED = "<error>";
+
+    /** Return an alphabet of the SIZE characters from U+0100 on. */
+    static Alphabet wideAlphabet(int size) {
+        StringBuilder chars = new StringBuilder();
+        for (int k = 0; k < size; k++) {
+            chars.append((char) (0x100 + k));
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Return a permutation of ALPHABET chosen by RANDOM, made of 2-cycles
+     *  only iff REFLECTION. */
+    static Permutation randomPermutation(Alphabet alphabet, Random random,
+                                         boolean reflection) {
+        List<Integer> order = new ArrayList<>();
+        for (int k = 0; k < alphabet.size(); k++) {
+            order.add(k);
+        }
+        Collections.shuffle(order, random);
+        int[] forward = new int[alphabet.size()];
+        for (int k = 0; k < forward.length; k++) {
+            if (!reflection) {
+                forward[order.get(k)] = order.get(k + 1 == forward.length
+                    ? 0 : k + 1);
+            } else if (k % 2 == 1) {
+                forward[order.get(k)] = order.get(k - 1);
+                forward[order.get(k - 1)] = order.get(k);
+            }
+        }
+        return new Permutation(forward, alphabet);
+    }
+
+    /** Return a machine over ALPHABET, which has an even size, with a
+     *  reflector R, a fixed rotor F and moving rotors I, II and III in
+     *  that order, all wired at random by RANDOM.  Moving rotor K has a
+     *  notch at every (K + 4)th character. */
+    static Machine randomMachine(Alphabet alphabet, Random random) {
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R",
+            randomPermutation(alphabet, random, true)));
+        rotors.add(new FixedRotor("F",
+            randomPermutation(alphabet, random, false)));
+        String[] names = {"I", "II", "III"};
+        for (int k = 0; k < names.length; k++) {
+            StringBuilder notches = new StringBuilder();
+            for (int c = k; c < alphabet.size(); c += k + 5) {
+                notches.append(alphabet.toChar(c));
+            }
+            rotors.add(new MovingRotor(names[k],
+                randomPermutation(alphabet, random, false),
+                notches.toString()));
+        }
+        Machine machine = new Machine(alphabet, 5, 3, rotors);
+        machine.insertRotors(new String[] {"R", "F", "I", "II", "III"});
+        return machine;
+    }
+
+    /** Return the output of Main converting INPUT line by line with the
+     *  machine of NAVALA_CONFIG, followed by FAILED if it failed. */
+    static String lineMode(String input) throws IOException {
+        Path config = Files.createTempFile("enigma", ".conf");
+        try {
+            Files.writeString(config, NAVALA_CONFIG);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream output = new PrintStream(bytes, true, UTF_8);
+            try {
+                new Main(new String[] {config.toString()},
+                    new ByteArrayInputStream(input.getBytes(UTF_8)),
+                    output).process();
+            } catch (EnigmaException excp) {
+                output.print(FAILED);
+            }
+            return bytes.toString(UTF_8);
+        } finally {
+            Files.delete(config);
+        }
+    }
+
+    /** Return the output written by CONVERT to a GroupWriter with a small
+     *  buffer, followed by FAILED if CONVERT failed. */
+    static String written(Consumer<GroupWriter> convert) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter sink =
+            new GroupWriter(Channels.newChannel(bytes), UTF_8, 16, false);
+        try {
+            convert.accept(sink);
+        } catch (EnigmaException excp) {
+            sink.flush();
+            return bytes.toString(UTF_8) + FAILED;
+        }
+        sink.flush();
+        return bytes.toString(UTF_8);
+    }
+
+    /** Return a source of TEXT delivering at most CHUNK characters per
+     *  read. */
+    static Readable chunked(String text, int chunk) {
+        CharBuffer rest = CharBuffer.wrap(text);
+        return buffer -> {
+            if (!rest.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(chunk,
+                Math.min(rest.remaining(), buffer.remaining()));
+            buffer.put(rest.subSequence(0, length));
+            rest.position(rest.position() + length);
+            return length;
+        };
+    }
+}
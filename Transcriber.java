@@ -0,0 +1,294 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.error;
+
+/** Converts a stream of input in the format read by Main, delivered in
+ *  chunks of any size.  Each line is either a setting line, whose first
+ *  non-blank character is '*' and which resets the machine, or a message
+ *  line, whose converted characters are emitted followed by a LINE_END
+ *  marker.  Grouping the output into fives is left to the consumer (see
+ *  GroupWriter).
+ *  @author Jianing Yu
+ */
+class Transcriber {
+
+    /** Marker emitted after the converted characters of each message
+     *  line. Alphabets read by Main never contain whitespace, so it cannot
+     *  be confused with a converted character. */
+    static final char LINE_END = '\n';
+
+    /** A transcriber converting messages with MACHINE, which it sets up
+     *  from the setting lines of its input. */
+    Transcriber(Machine machine) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+    }
+
+    /** Return my machine. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Record checkpoints of my progress with INDEX, counting offsets
+     *  from the start of my input, or from the checkpoint I resumed. */
+    void index(Checkpoints.Writer index) {
+        _index = index;
+        _checkpoints = index.index();
+    }
+
+    /** Continue a previous run from CHECKPOINT, restoring my machine:
+     *  my input must start at the input offset of CHECKPOINT. */
+    void resume(Checkpoints.Checkpoint checkpoint) {
+        checkpoint.restore(_machine);
+        _started = true;
+        _state = checkpoint.message() ? MESSAGE : START;
+        _skipLineFeed = checkpoint.lineFeed();
+        _inputBytes = checkpoint.input();
+        _outputBytes = checkpoint.output();
+        _column = checkpoint.column();
+        _section = checkpoint.section();
+        _plugboard = checkpoint.plugboard();
+        if (Metrics.ENABLED) {
+            _lineStart = System.nanoTime();
+        }
+    }
+
+    /** Consume characters of IN, appending converted characters and
+     *  LINE_END markers to OUT, until IN is exhausted or OUT is full.
+     *  Setting lines are applied as soon as they end. */
+    void transcribe(CharBuffer in, CharBuffer out) {
+        while (in.hasRemaining()) {
+            char ch = in.get(in.position());
+            if (_skipLineFeed) {
+                _skipLineFeed = false;
+                if (ch == '\n') {
+                    consume(in, ch);
+                    continue;
+                }
+            }
+
+            if (isLineEnd(ch)) {
+                if (!endLine(out)) {
+                    return;
+                }
+                _skipLineFeed = ch == '\r';
+            } else if (_state == MESSAGE) {
+                if (!Character.isWhitespace(ch)) {
+                    if (!out.hasRemaining()) {
+                        return;
+                    }
+                    emit(out, ch);
+                }
+            } else if (_state == SETTING || ch <= ' ') {
+                _pending.append(ch);
+            } else if (ch == '*') {
+                _state = SETTING;
+                _pending.append(ch);
+            } else {
+                if (!startMessage(out, 1)) {
+                    return;
+                }
+                emit(out, ch);
+            }
+            consume(in, ch);
+        }
+    }
+
+    /** Finish the last line of input, which need not end with a line
+     *  terminator, appending any remaining output to OUT. Returns false
+     *  if OUT was too full, in which case finish should be called again
+     *  with more room. */
+    boolean finish(CharBuffer out) {
+        if (_state != START || _pending.length() > 0) {
+            if (!endLine(out)) {
+                return false;
+            }
+        }
+        if (!_started) {
+            throw error("First line of input is not a setting.");
+        }
+        return true;
+    }
+
+    /** Returns true if CH ends a line, as for Scanner.nextLine. */
+    static boolean isLineEnd(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u2028' || ch == '\u2029'
+            || ch == '\u0085';
+    }
+
+    /** Return the conversion of message character CH. */
+    private char convert(char ch) {
+        return _alphabet.toChar(_machine.convert(_alphabet.toInt(ch)));
+    }
+
+    /** Append the conversion of message character CH to OUT, which has
+     *  room for it. */
+    private void emit(CharBuffer out, char ch) {
+        char converted = convert(ch);
+        out.put(converted);
+        if (_index != null) {
+            if (_column != 0 && _column % 5 == 0) {
+                _outputBytes += _checkpoints.width(' ');
+            }
+            _outputBytes += _checkpoints.width(converted);
+            _column++;
+            _sinceCheckpoint++;
+            if (_sinceCheckpoint >= _checkpoints.interval()) {
+                _due = true;
+            }
+        }
+    }
+
+    /** Move past CH, the next character of IN, then take a checkpoint if
+     *  one is due. */
+    private void consume(CharBuffer in, char ch) {
+        in.position(in.position() + 1);
+        if (Metrics.ENABLED && !isLineEnd(ch)) {
+            _lineLength++;
+        }
+        if (_index != null) {
+            _inputBytes += _checkpoints.width(ch);
+            if (_due) {
+                _index.add(new Checkpoints.Checkpoint(_inputBytes,
+                    _outputBytes, _state == MESSAGE, _skipLineFeed, _column,
+                    _section, _plugboard, _machine.getSettings()));
+                _due = false;
+                _sinceCheckpoint = 0;
+            }
+        }
+    }
+
+    /** Handle the end of the current line, writing to OUT. Returns false,
+     *  changing nothing, if OUT lacks room. */
+    private boolean endLine(CharBuffer out) {
+        if (_state == SETTING) {
+            String line = _pending.toString();
+            Main.setUp(_machine, line);
+            _started = true;
+            if (_index != null) {
+                int paren = line.indexOf('(');
+                if (paren != -1) {
+                    _plugboard = line.substring(paren);
+                }
+                _section = line;
+                _due = true;
+            }
+        } else {
+            if (_state == START && !startMessage(out, 1)) {
+                return false;
+            }
+            if (!out.hasRemaining()) {
+                return false;
+            }
+            out.put(LINE_END);
+            if (_index != null) {
+                _outputBytes += _checkpoints.separatorWidth();
+                _column = 0;
+            }
+            if (Metrics.ENABLED) {
+                Metrics.lineProcessed(_lineLength,
+                    System.nanoTime() - _lineStart);
+            }
+        }
+        if (Metrics.ENABLED) {
+            _lineLength = 0;
+            _lineStart = System.nanoTime();
+        }
+        _state = START;
+        _pending.setLength(0);
+        return true;
+    }
+
+    /** Begin a message line, converting the leading characters held back
+     *  while its kind was unknown, and make sure OUT has room for them and
+     *  RESERVE more characters. Returns false, changing nothing, if OUT
+     *  lacks room. */
+    private boolean startMessage(CharBuffer out, int reserve) {
+        if (!_started) {
+            throw error("First line of input is not a setting.");
+        }
+        int needed = reserve;
+        for (int i = 0; i < _pending.length(); i++) {
+            if (!Character.isWhitespace(_pending.charAt(i))) {
+                needed++;
+            }
+        }
+        if (out.remaining() < needed) {
+            return false;
+        }
+        for (int i = 0; i < _pending.length(); i++) {
+            char ch = _pending.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                emit(out, ch);
+            }
+        }
+        _pending.setLength(0);
+        _state = MESSAGE;
+        return true;
+    }
+
+    /** State at the start of a line, before its kind is known. */
+    private static final int START = 0;
+
+    /** State within a setting line. */
+    private static final int SETTING = 1;
+
+    /** State within a message line. */
+    private static final int MESSAGE = 2;
+
+    /** The machine converting my messages. */
+    private final Machine _machine;
+
+    /** The alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** The kind of the current line: START, SETTING or MESSAGE. */
+    private int _state = START;
+
+    /** The setting line read so far, or the leading blanks of a line whose
+     *  kind is not yet known. */
+    private final StringBuilder _pending = new StringBuilder();
+
+    /** True iff the previous character was a carriage return, so that a
+     *  following line feed belongs to the same line terminator. */
+    private boolean _skipLineFeed;
+
+    /** True iff a setting line has been applied. */
+    private boolean _started;
+
+    /** Writer of my checkpoints, or null if none are taken. */
+    private Checkpoints.Writer _index;
+
+    /** The index written by _index. */
+    private Checkpoints _checkpoints;
+
+    /** When taking checkpoints, the offsets of the next input byte and of
+     *  the next output byte, as GroupWriter formats the output. */
+    private long _inputBytes, _outputBytes;
+
+    /** When taking checkpoints, the number of characters of the current
+     *  message line converted. */
+    private int _column;
+
+    /** When taking checkpoints, the number of characters converted since
+     *  the last one. */
+    private long _sinceCheckpoint;
+
+    /** True iff a checkpoint is to be taken once the current character
+     *  has been consumed. */
+    private boolean _due;
+
+    /** When collecting metrics, the time the current line started, taken
+     *  as the end of the line before it. */
+    private long _lineStart;
+
+    /** When collecting metrics, the number of characters of the current
+     *  line consumed. */
+    private int _lineLength;
+
+    /** When taking checkpoints, the last setting line applied, and the
+     *  plugboard it left ("" for none). */
+    private String _section, _plugboard = "";
+}
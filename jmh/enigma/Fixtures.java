@@ -0,0 +1,100 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+/** Machines and data shared by the benchmarks.
+ *  @author Jianing Yu
+ */
+final class Fixtures {
+
+    /** Not instantiable. */
+    private Fixtures() {
+    }
+
+    /** Return an alphabet of SIZE distinct characters. */
+    static Alphabet alphabet(int size) {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            chars.append((char) (size <= 26 ? 'A' + i : '\u4E00' + i));
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Return a random permutation of ALPHABET drawn from RANDOM, in the
+     *  form of a single cycle. */
+    static Permutation randomPermutation(Alphabet alphabet, Random random) {
+        List<Character> chars = new ArrayList<>();
+        for (int i = 0; i < alphabet.size(); i++) {
+            chars.add(alphabet.toChar(i));
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder cycle = new StringBuilder("(");
+        for (char ch : chars) {
+            cycle.append(ch);
+        }
+        return new Permutation(cycle.append(')').toString(), alphabet);
+    }
+
+    /** Return COUNT random indices below BOUND drawn from RANDOM. */
+    static int[] randomIndices(int count, int bound, Random random) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = random.nextInt(bound);
+        }
+        return indices;
+    }
+
+    /** Return a five-rotor naval machine, with a plugboard iff
+     *  PLUGBOARD. */
+    static Machine navalMachine(boolean plugboard) {
+        Machine machine = Main.readConfig(new Scanner(NAVAL_CONFIG));
+        Main.setUp(machine, "* B Beta III IV I AXLE"
+            + (plugboard ? " (HQ) (EX) (IP) (TR) (BY)" : ""));
+        return machine;
+    }
+
+    /** Return LENGTH random upper-case letters drawn from RANDOM, in words
+     *  of five. */
+    static String randomMessage(int length, Random random) {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i % 5 == 0 && i > 0) {
+                msg.append(' ');
+            }
+            msg.append((char) ('A' + random.nextInt(26)));
+        }
+        return msg.toString();
+    }
+
+    /** Return an input file of LINES random message lines drawn from
+     *  RANDOM, with a new setting line every hundred lines. */
+    static String randomInput(int lines, Random random) {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i % 100 == 0) {
+                input.append("* B Beta III IV I AXLE (HQ) (EX) (IP)\n");
+            }
+            input.append(randomMessage(80, random)).append('\n');
+        }
+        return input.toString();
+    }
+
+    /** Configuration of the naval Enigma used by the benchmarks. */
+    static final String NAVAL_CONFIG = String.join("\n",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3",
+        "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+        "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+        "V MZ (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)",
+        "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ)"
+        + " (TV)");
+
+    /** Seed of the random test data, so that runs are comparable. */
+    static final long SEED = 61;
+}
@@ -0,0 +1,67 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of MachineLanes converting one character in every lane.
+ *  Scores are in steps, each converting one character in every lane.
+ *  @author Jianing Yu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LanesBenchmark {
+
+    /** Number of lanes (public, as JMH sets it). */
+    @Param({ "64", "1024" })
+    public int lanes;
+
+    /** Create the lanes and the characters converted. */
+    @Setup
+    public void setUp() {
+        _engine = new MachineLanes(Fixtures.navalMachine(true), lanes);
+        _output = new int[lanes];
+        _indices = Fixtures.randomIndices(COUNT, 26,
+            new Random(Fixtures.SEED));
+    }
+
+    /** Convert each of _indices in every lane. */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int convert() {
+        int sum = 0;
+        for (int c : _indices) {
+            _engine.convert(c, _output);
+            sum += _output[0];
+        }
+        return sum;
+    }
+
+    /** Number of characters converted in each lane per invocation. */
+    private static final int COUNT = 64;
+
+    /** The lanes converting. */
+    private MachineLanes _engine;
+
+    /** Output of the last conversion, one character per lane. */
+    private int[] _output;
+
+    /** Indices converted. */
+    private int[] _indices;
+}
@@ -0,0 +1,93 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of a five-rotor naval machine converting characters, with
+ *  and without a plugboard, through Machine and through its
+ *  CompiledEngine.  Scores are in characters converted.
+ *  @author Jianing Yu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MachineBenchmark {
+
+    /** True iff the machine has a plugboard (public, as JMH sets it). */
+    @Param({ "false", "true" })
+    public boolean plugboard;
+
+    /** Create the machine, its engine, and the messages converted. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(Fixtures.SEED);
+        _machine = Fixtures.navalMachine(plugboard);
+        _engine = Fixtures.navalMachine(plugboard).compile();
+        _indices = Fixtures.randomIndices(COUNT, 26, random);
+        _message = Fixtures.randomMessage(MESSAGE_LENGTH, random);
+    }
+
+    /** Convert each of _indices with Machine.convert(int). */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int convertInt() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+    /** Convert _message with Machine.convert(String). */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_LENGTH)
+    public String convertString() {
+        return _machine.convert(_message);
+    }
+
+    /** Convert each of _indices with CompiledEngine.convert(int). */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int compiledConvertInt() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _engine.convert(c);
+        }
+        return sum;
+    }
+
+    /** Number of conversions per invocation of the single-character
+     *  benchmarks. */
+    private static final int COUNT = 1024;
+
+    /** Number of letters in the message given to Machine.convert(String). */
+    private static final int MESSAGE_LENGTH = 10000;
+
+    /** The machine converting. */
+    private Machine _machine;
+
+    /** An engine compiled from a machine set up like _machine. */
+    private CompiledEngine _engine;
+
+    /** Indices converted one at a time. */
+    private int[] _indices;
+
+    /** Message converted as a whole. */
+    private String _message;
+}
@@ -0,0 +1,108 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Main.process converting a generated input file of
+ *  INPUT_LINES lines in each of its modes.  The line and --stream modes
+ *  read the input from memory and discard the output, and a fresh Main
+ *  is made before each run, outside the timing, so that only the
+ *  conversion is timed; --mmap reads and writes files, as it must.
+ *  @author Jianing Yu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MainBenchmark {
+
+    /** The mode of Main: lines, stream or mmap (public, as JMH sets
+     *  it). */
+    @Param({ "lines", "stream", "mmap" })
+    public String mode;
+
+    /** Write the configuration and input files. */
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        _input = Fixtures.randomInput(INPUT_LINES, new Random(Fixtures.SEED))
+            .getBytes();
+        _config = Files.createTempFile("enigma", ".conf");
+        _inputFile = Files.createTempFile("enigma", ".in");
+        _outputFile = Files.createTempFile("enigma", ".out");
+        Files.write(_config, Fixtures.NAVAL_CONFIG.getBytes());
+        Files.write(_inputFile, _input);
+    }
+
+    /** Make the Main that the next run of process() uses. */
+    @Setup(Level.Invocation)
+    public void createMain() {
+        if (mode.equals("lines")) {
+            _main = new Main(new String[] { _config.toString() },
+                new ByteArrayInputStream(_input), DISCARD);
+        } else if (mode.equals("stream")) {
+            _main = new Main(new String[] { "--stream", _config.toString() },
+                new ByteArrayInputStream(_input), DISCARD);
+        } else {
+            _main = new Main(new String[] { "--" + mode, _config.toString(),
+                _inputFile.toString(), _outputFile.toString() });
+        }
+    }
+
+    /** Convert the input. */
+    @Benchmark
+    public void process() {
+        _main.process();
+    }
+
+    /** Delete the files. */
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(_config);
+        Files.deleteIfExists(_inputFile);
+        Files.deleteIfExists(_outputFile);
+    }
+
+    /** Number of message lines in the input. */
+    private static final int INPUT_LINES = 5000;
+
+    /** Output of the line and --stream modes. */
+    private static final PrintStream DISCARD =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    /** The Main run by process(). */
+    private Main _main;
+
+    /** Contents of the input file. */
+    private byte[] _input;
+
+    /** Configuration file. */
+    private Path _config;
+
+    /** Input file. */
+    private Path _inputFile;
+
+    /** Output file. */
+    private Path _outputFile;
+}
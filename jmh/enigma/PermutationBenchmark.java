@@ -0,0 +1,95 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of Permutation and Rotor conversions at several alphabet
+ *  sizes.  Each operation converts one of a fixed array of random
+ *  indices, so that no index arithmetic is timed.
+ *  @author Jianing Yu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PermutationBenchmark {
+
+    /** Number of characters in the alphabet (public, as JMH sets it). */
+    @Param({ "26", "256", "4096" })
+    public int size;
+
+    /** Create a random permutation and rotor of size characters. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(Fixtures.SEED);
+        _perm = Fixtures.randomPermutation(Fixtures.alphabet(size), random);
+        _rotor = new MovingRotor("R", _perm, "");
+        _rotor.prepare();
+        _indices = Fixtures.randomIndices(COUNT, size, random);
+        _settings = Fixtures.randomIndices(COUNT, size, random);
+    }
+
+    /** Permute each of _indices. */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int permute() {
+        int sum = 0;
+        for (int i : _indices) {
+            sum += _perm.permute(i);
+        }
+        return sum;
+    }
+
+    /** Invert each of _indices. */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int invert() {
+        int sum = 0;
+        for (int i : _indices) {
+            sum += _perm.invert(i);
+        }
+        return sum;
+    }
+
+    /** Convert each of _indices forward through _rotor at the
+     *  corresponding setting. */
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int convertForward() {
+        int sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            sum += _rotor.convertForward(_indices[i], _settings[i]);
+        }
+        return sum;
+    }
+
+    /** Number of conversions per invocation. */
+    private static final int COUNT = 1024;
+
+    /** The permutation converted. */
+    private Permutation _perm;
+
+    /** A rotor wired by _perm. */
+    private Rotor _rotor;
+
+    /** Indices converted. */
+    private int[] _indices;
+
+    /** Rotor settings, one for each of _indices. */
+    private int[] _settings;
+}
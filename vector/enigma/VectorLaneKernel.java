@@ -0,0 +1,35 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/** A LaneKernel using the incubating Vector API: the table indices of as
+ *  many lanes as the preferred vector holds are computed at once, then
+ *  the wiring is gathered at them.  Built only with the "vector" profile,
+ *  and used only when the JVM runs with --add-modules
+ *  jdk.incubator.vector.
+ *  @author Jianing Yu
+ */
+final class VectorLaneKernel extends LaneKernel {
+
+    @Override
+    void pass(int[] wiring, int[] settings, int[] contacts, int size,
+              int lanes, int[] scratch) {
+        int lane = 0;
+        for (int bound = SPECIES.loopBound(lanes); lane < bound;
+             lane += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, settings, lane).mul(size)
+                .add(IntVector.fromArray(SPECIES, contacts, lane))
+                .intoArray(scratch, lane);
+            IntVector.fromArray(SPECIES, wiring, 0, scratch, lane)
+                .intoArray(contacts, lane);
+        }
+        for (; lane < lanes; lane++) {
+            contacts[lane] = wiring[settings[lane] * size + contacts[lane]];
+        }
+    }
+
+    /** The shape of the vectors used. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+}